@@ -27,6 +27,9 @@ package com.epam.cmbi.s3;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
 import java.util.Optional;
 
 /**
@@ -35,6 +38,20 @@ import java.util.Optional;
  */
 public final class Configuration {
 
+    /**
+     * Kinds of threads the part downloads run on.
+     */
+    public enum ExecutionMode {
+        /**
+         * A shared pool of platform threads.
+         */
+        PLATFORM,
+        /**
+         * A virtual thread per task, if the runtime supports virtual threads (Java 21+).
+         */
+        VIRTUAL
+    }
+
     /**
      *  Number of connection-threads for downloading data from S3 cloud.
      */
@@ -55,6 +72,107 @@ public final class Configuration {
      */
     private static int customRetryCount;
 
+    /**
+     *  Max total size of idle part buffers kept for reuse by the part buffer pool.
+     */
+    private static long bufferPoolSize;
+
+    /**
+     *  Max total size of the consumed parts each stream keeps for seeks back.
+     */
+    private static long retainedPartsSize;
+
+    /**
+     *  Whether the downloaded parts are stored off-heap in direct buffers.
+     */
+    private static boolean directBuffers;
+
+    /**
+     *  Kind of threads for the part downloads.
+     */
+    private static ExecutionMode executionMode;
+
+    /**
+     *  Max total size of the file blocks kept by the shared block cache, 0 disables the cache.
+     */
+    private static long blockCacheSize;
+
+    /**
+     *  Size of a file block in the shared block cache.
+     */
+    private static int blockCacheBlockSize;
+
+    /**
+     *  Directory of the local disk tier of the block cache.
+     */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    private static Optional<Path> diskCacheDirectory;
+
+    /**
+     *  Max total size of the block and index files in the disk cache directory.
+     */
+    private static long diskCacheSize;
+
+    /**
+     *  Whether the part sizes are picked from the measured latency and throughput.
+     */
+    private static boolean adaptivePartSize;
+
+    /**
+     *  Max gap between the prefetched ranges, which are fetched by one request.
+     */
+    private static int rangeGapThreshold;
+
+    /**
+     *  Whether the process-wide limit of the part downloads adapts to the S3 responses.
+     */
+    private static boolean adaptiveConcurrency;
+
+    /**
+     *  Max number of part downloads running at the same time in all streams.
+     */
+    private static int maxTotalConnections;
+
+    /**
+     *  Percentile of the part loading times after which a part is requested again.
+     */
+    private static int hedgePercentile;
+
+    /**
+     *  Max number of part download retries the process makes in a row.
+     */
+    private static int retryBudget;
+
+    /**
+     *  Max total size of the parts loaded or queued for all streams of the process.
+     */
+    private static long bufferedPartsSize;
+
+    /**
+     *  Time to keep the object metadata for, in seconds.
+     */
+    private static long metadataCacheTtl;
+
+    /**
+     *  Max total size of the index files kept in memory.
+     */
+    private static long indexCacheSize;
+
+    /**
+     *  Whether the index file is downloaded on its first read rather than on the open.
+     */
+    private static boolean lazyIndex;
+
+    /**
+     *  Size of the file head loaded in parallel parts when the file is opened.
+     */
+    private static int headWindowSize;
+
+    /**
+     *  Whether the downloaded parts are cut at the BGZF block starts.
+     */
+    private static boolean bgzfAlignedParts;
+
     /**
      *  Index file URL for BAM file.
      */
@@ -66,10 +184,59 @@ public final class Configuration {
     public static final String MIN_CHUNK_SIZE_PARAMETER = "samjdk.s3plugin.min_download_chunk_size";
     public static final String INDEX_URL_PARAMETER = "samjdk.s3plugin.index_file_url";
     public static final String CUSTOM_RETRY_COUNT_PARAMETER = "samjdk.s3plugin.custom_retry_count";
+    public static final String BUFFER_POOL_SIZE_PARAMETER = "samjdk.s3plugin.buffer_pool_size";
+    public static final String RETAINED_PARTS_SIZE_PARAMETER =
+            "samjdk.s3plugin.retained_parts_size";
+    public static final String DIRECT_BUFFERS_PARAMETER = "samjdk.s3plugin.direct_buffers";
+    public static final String EXECUTION_MODE_PARAMETER = "samjdk.s3plugin.execution_mode";
+    public static final String BLOCK_CACHE_SIZE_PARAMETER = "samjdk.s3plugin.block_cache_size";
+    public static final String BLOCK_CACHE_BLOCK_SIZE_PARAMETER =
+            "samjdk.s3plugin.block_cache_block_size";
+    public static final String DISK_CACHE_DIR_PARAMETER = "samjdk.s3plugin.disk_cache_dir";
+    public static final String DISK_CACHE_SIZE_PARAMETER = "samjdk.s3plugin.disk_cache_size";
+    public static final String ADAPTIVE_PART_SIZE_PARAMETER =
+            "samjdk.s3plugin.adaptive_part_size";
+    public static final String RANGE_GAP_THRESHOLD_PARAMETER =
+            "samjdk.s3plugin.range_gap_threshold";
+    public static final String ADAPTIVE_CONCURRENCY_PARAMETER =
+            "samjdk.s3plugin.adaptive_concurrency";
+    public static final String MAX_TOTAL_CONNECTIONS_PARAMETER =
+            "samjdk.s3plugin.max_total_connections";
+    public static final String HEDGE_PERCENTILE_PARAMETER = "samjdk.s3plugin.hedge_percentile";
+    public static final String RETRY_BUDGET_PARAMETER = "samjdk.s3plugin.retry_budget";
+    public static final String BUFFERED_PARTS_SIZE_PARAMETER =
+            "samjdk.s3plugin.buffered_parts_size";
+    public static final String METADATA_CACHE_TTL_PARAMETER =
+            "samjdk.s3plugin.metadata_cache_ttl";
+    public static final String INDEX_CACHE_SIZE_PARAMETER = "samjdk.s3plugin.index_cache_size";
+    public static final String LAZY_INDEX_PARAMETER = "samjdk.s3plugin.lazy_index";
+    public static final String HEAD_WINDOW_SIZE_PARAMETER = "samjdk.s3plugin.head_window_size";
+    public static final String BGZF_ALIGNED_PARTS_PARAMETER =
+            "samjdk.s3plugin.bgzf_aligned_parts";
     public static final int DEFAULT_CONNECTIONS_NUMBER = 50;
     public static final int DEFAULT_MAX_CHUNK_SIZE = 8 * 1024 * 1024;
     public static final int DEFAULT_MIN_CHUNK_SIZE = 32 * 1024;
     public static final int DEFAULT_CUSTOM_RETRY_COUNT = 3;
+    public static final long DEFAULT_BUFFER_POOL_SIZE = 128 * 1024 * 1024;
+    public static final long DEFAULT_RETAINED_PARTS_SIZE = 2 * DEFAULT_MAX_CHUNK_SIZE;
+    public static final boolean DEFAULT_DIRECT_BUFFERS = false;
+    public static final ExecutionMode DEFAULT_EXECUTION_MODE = ExecutionMode.PLATFORM;
+    public static final long DEFAULT_BLOCK_CACHE_SIZE = 0;
+    public static final int DEFAULT_BLOCK_CACHE_BLOCK_SIZE = 256 * 1024;
+    public static final String DEFAULT_DISK_CACHE_DIR = "";
+    public static final long DEFAULT_DISK_CACHE_SIZE = 10L * 1024 * 1024 * 1024;
+    public static final boolean DEFAULT_ADAPTIVE_PART_SIZE = true;
+    public static final int DEFAULT_RANGE_GAP_THRESHOLD = 512 * 1024;
+    public static final boolean DEFAULT_ADAPTIVE_CONCURRENCY = true;
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 4 * DEFAULT_CONNECTIONS_NUMBER;
+    public static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    public static final int DEFAULT_RETRY_BUDGET = 100;
+    public static final long DEFAULT_BUFFERED_PARTS_SIZE = 256 * 1024 * 1024;
+    public static final long DEFAULT_METADATA_CACHE_TTL = 60;
+    public static final long DEFAULT_INDEX_CACHE_SIZE = 64 * 1024 * 1024;
+    public static final boolean DEFAULT_LAZY_INDEX = false;
+    public static final int DEFAULT_HEAD_WINDOW_SIZE = 4 * 1024 * 1024;
+    public static final boolean DEFAULT_BGZF_ALIGNED_PARTS = false;
     public static final String DEFAULT_INDEX_URL = "";
 
     private Configuration() {
@@ -92,6 +259,101 @@ public final class Configuration {
         return minDownloadPartSize;
     }
 
+    public static long getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    public static long getRetainedPartsSize() {
+        return retainedPartsSize;
+    }
+
+    public static boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public static ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public static long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public static int getBlockCacheBlockSize() {
+        return blockCacheBlockSize;
+    }
+
+    public static Optional<Path> getDiskCacheDirectory() {
+        return diskCacheDirectory;
+    }
+
+    public static long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    public static boolean isAdaptivePartSize() {
+        return adaptivePartSize;
+    }
+
+    public static int getRangeGapThreshold() {
+        return rangeGapThreshold;
+    }
+
+    public static boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @return the number of part downloads the streams of the process may run at the same time.
+     */
+    public static int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    public static int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public static int getRetryBudget() {
+        return retryBudget;
+    }
+
+    public static long getBufferedPartsSize() {
+        return bufferedPartsSize;
+    }
+
+    /**
+     * @return the time to keep the object metadata for, in seconds.
+     */
+    public static long getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    public static long getIndexCacheSize() {
+        return indexCacheSize;
+    }
+
+    /**
+     * @return true if the index is downloaded on its first read rather than on the open.
+     */
+    public static boolean isLazyIndex() {
+        return lazyIndex;
+    }
+
+    /**
+     * @return the size of the file head loaded in parallel parts when the file is opened.
+     */
+    public static int getHeadWindowSize() {
+        return headWindowSize;
+    }
+
+    /**
+     * @return true if the downloaded parts are cut at the BGZF block starts.
+     */
+    public static boolean isBgzfAlignedParts() {
+        return bgzfAlignedParts;
+    }
+
     static {
         init();
     }
@@ -138,6 +400,143 @@ public final class Configuration {
                     new IOException());
         }
 
+        long poolSize = getLongProperty(BUFFER_POOL_SIZE_PARAMETER, DEFAULT_BUFFER_POOL_SIZE);
+        if (poolSize >= 0) {
+            bufferPoolSize = poolSize;
+        } else {
+            throw new IllegalArgumentException("Negative buffer pool size value",
+                    new IOException());
+        }
+
+        long retainedSize = getLongProperty(RETAINED_PARTS_SIZE_PARAMETER,
+                DEFAULT_RETAINED_PARTS_SIZE);
+        if (retainedSize >= 0) {
+            retainedPartsSize = retainedSize;
+        } else {
+            throw new IllegalArgumentException("Negative retained parts size value",
+                    new IOException());
+        }
+
+        directBuffers = getBooleanProperty(DIRECT_BUFFERS_PARAMETER, DEFAULT_DIRECT_BUFFERS);
+
+        String mode = System.getProperty(EXECUTION_MODE_PARAMETER, DEFAULT_EXECUTION_MODE.name());
+        try {
+            executionMode = ExecutionMode.valueOf(mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(EXECUTION_MODE_PARAMETER
+                    + " value is incorrect, value = " + mode, e);
+        }
+
+        long cacheSize = getLongProperty(BLOCK_CACHE_SIZE_PARAMETER, DEFAULT_BLOCK_CACHE_SIZE);
+        if (cacheSize >= 0) {
+            blockCacheSize = cacheSize;
+        } else {
+            throw new IllegalArgumentException("Negative block cache size value",
+                    new IOException());
+        }
+
+        int blockSize = getIntProperty(BLOCK_CACHE_BLOCK_SIZE_PARAMETER,
+                DEFAULT_BLOCK_CACHE_BLOCK_SIZE);
+        if (blockSize > 0) {
+            blockCacheBlockSize = blockSize;
+        } else {
+            throw new IllegalArgumentException("Negative block cache block size value",
+                    new IOException());
+        }
+
+        String cacheDir = System.getProperty(DISK_CACHE_DIR_PARAMETER, DEFAULT_DISK_CACHE_DIR);
+        if ("".equals(cacheDir)) {
+            diskCacheDirectory = Optional.empty();
+        } else {
+            diskCacheDirectory = Optional.of(Paths.get(cacheDir));
+        }
+
+        long diskSize = getLongProperty(DISK_CACHE_SIZE_PARAMETER, DEFAULT_DISK_CACHE_SIZE);
+        if (diskSize >= 0) {
+            diskCacheSize = diskSize;
+        } else {
+            throw new IllegalArgumentException("Negative disk cache size value",
+                    new IOException());
+        }
+
+        adaptivePartSize = getBooleanProperty(ADAPTIVE_PART_SIZE_PARAMETER,
+                DEFAULT_ADAPTIVE_PART_SIZE);
+
+        int gapThreshold = getIntProperty(RANGE_GAP_THRESHOLD_PARAMETER,
+                DEFAULT_RANGE_GAP_THRESHOLD);
+        if (gapThreshold >= 0) {
+            rangeGapThreshold = gapThreshold;
+        } else {
+            throw new IllegalArgumentException("Negative range gap threshold value",
+                    new IOException());
+        }
+
+        adaptiveConcurrency = getBooleanProperty(ADAPTIVE_CONCURRENCY_PARAMETER,
+                DEFAULT_ADAPTIVE_CONCURRENCY);
+
+        int totalConnections = getIntProperty(MAX_TOTAL_CONNECTIONS_PARAMETER,
+                DEFAULT_MAX_TOTAL_CONNECTIONS);
+        if (totalConnections > 0) {
+            maxTotalConnections = totalConnections;
+        } else {
+            throw new IllegalArgumentException("Negative max total connections value",
+                    new IOException());
+        }
+
+        int percentile = getIntProperty(HEDGE_PERCENTILE_PARAMETER, DEFAULT_HEDGE_PERCENTILE);
+        if (percentile >= 0 && percentile <= 100) {
+            hedgePercentile = percentile;
+        } else {
+            throw new IllegalArgumentException("Hedge percentile value out of range",
+                    new IOException());
+        }
+
+        int budget = getIntProperty(RETRY_BUDGET_PARAMETER, DEFAULT_RETRY_BUDGET);
+        if (budget >= 0) {
+            retryBudget = budget;
+        } else {
+            throw new IllegalArgumentException("Negative retry budget value",
+                    new IOException());
+        }
+
+        long partsSize = getLongProperty(BUFFERED_PARTS_SIZE_PARAMETER,
+                DEFAULT_BUFFERED_PARTS_SIZE);
+        if (partsSize > 0) {
+            bufferedPartsSize = partsSize;
+        } else {
+            throw new IllegalArgumentException("Negative buffered parts size value",
+                    new IOException());
+        }
+
+        long ttl = getLongProperty(METADATA_CACHE_TTL_PARAMETER, DEFAULT_METADATA_CACHE_TTL);
+        if (ttl >= 0) {
+            metadataCacheTtl = ttl;
+        } else {
+            throw new IllegalArgumentException("Negative metadata cache TTL value",
+                    new IOException());
+        }
+
+        long indexCache = getLongProperty(INDEX_CACHE_SIZE_PARAMETER, DEFAULT_INDEX_CACHE_SIZE);
+        if (indexCache >= 0) {
+            indexCacheSize = indexCache;
+        } else {
+            throw new IllegalArgumentException("Negative index cache size value",
+                    new IOException());
+        }
+
+        lazyIndex = getBooleanProperty(LAZY_INDEX_PARAMETER, DEFAULT_LAZY_INDEX);
+
+        int headWindow = getIntProperty(HEAD_WINDOW_SIZE_PARAMETER, DEFAULT_HEAD_WINDOW_SIZE);
+        if (headWindow >= 0) {
+            headWindowSize = headWindow;
+        } else {
+            throw new IllegalArgumentException("Negative head window size value",
+                    new IOException());
+        }
+
+        bgzfAlignedParts = getBooleanProperty(BGZF_ALIGNED_PARTS_PARAMETER,
+                DEFAULT_BGZF_ALIGNED_PARTS);
+
         String url = System.getProperty(INDEX_URL_PARAMETER, "");
         if ("".equals(url)) {
             indexFileURL = Optional.empty();
@@ -165,6 +564,35 @@ public final class Configuration {
         }
     }
 
+    /**
+     * @param name name of the property to be set.
+     * @param def  default value.
+     * @return a value of a system property if it was set,
+     * otherwise return the default value.
+     */
+    private static long getLongProperty(final String name, final long def) {
+        final String value = System.getProperty(name, Long.toString(def));
+        try {
+            return Long.parseLong(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + " value is incorrect, value = " + value, e);
+        }
+    }
+
+    /**
+     * @param name name of the property to be set.
+     * @param def  default value.
+     * @return a value of a system property if it was set,
+     * otherwise return the default value.
+     */
+    private static boolean getBooleanProperty(final String name, final boolean def) {
+        final String value = System.getProperty(name, Boolean.toString(def));
+        if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+            throw new IllegalArgumentException(name + " value is incorrect, value = " + value);
+        }
+        return Boolean.parseBoolean(value);
+    }
+
     /**
      * @return a set number of connection retries.
      */
@@ -184,6 +612,46 @@ public final class Configuration {
                 Integer.toString(Configuration.DEFAULT_MIN_CHUNK_SIZE));
         System.setProperty(Configuration.CUSTOM_RETRY_COUNT_PARAMETER,
                 Integer.toString(Configuration.DEFAULT_CUSTOM_RETRY_COUNT));
+        System.setProperty(Configuration.BUFFER_POOL_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_BUFFER_POOL_SIZE));
+        System.setProperty(Configuration.RETAINED_PARTS_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_RETAINED_PARTS_SIZE));
+        System.setProperty(Configuration.DIRECT_BUFFERS_PARAMETER,
+                Boolean.toString(Configuration.DEFAULT_DIRECT_BUFFERS));
+        System.setProperty(Configuration.EXECUTION_MODE_PARAMETER,
+                Configuration.DEFAULT_EXECUTION_MODE.name());
+        System.setProperty(Configuration.BLOCK_CACHE_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_BLOCK_CACHE_SIZE));
+        System.setProperty(Configuration.BLOCK_CACHE_BLOCK_SIZE_PARAMETER,
+                Integer.toString(Configuration.DEFAULT_BLOCK_CACHE_BLOCK_SIZE));
+        System.setProperty(Configuration.DISK_CACHE_DIR_PARAMETER,
+                Configuration.DEFAULT_DISK_CACHE_DIR);
+        System.setProperty(Configuration.DISK_CACHE_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_DISK_CACHE_SIZE));
+        System.setProperty(Configuration.ADAPTIVE_PART_SIZE_PARAMETER,
+                Boolean.toString(Configuration.DEFAULT_ADAPTIVE_PART_SIZE));
+        System.setProperty(Configuration.RANGE_GAP_THRESHOLD_PARAMETER,
+                Integer.toString(Configuration.DEFAULT_RANGE_GAP_THRESHOLD));
+        System.setProperty(Configuration.ADAPTIVE_CONCURRENCY_PARAMETER,
+                Boolean.toString(Configuration.DEFAULT_ADAPTIVE_CONCURRENCY));
+        System.setProperty(Configuration.MAX_TOTAL_CONNECTIONS_PARAMETER,
+                Integer.toString(Configuration.DEFAULT_MAX_TOTAL_CONNECTIONS));
+        System.setProperty(Configuration.HEDGE_PERCENTILE_PARAMETER,
+                Integer.toString(Configuration.DEFAULT_HEDGE_PERCENTILE));
+        System.setProperty(Configuration.RETRY_BUDGET_PARAMETER,
+                Integer.toString(Configuration.DEFAULT_RETRY_BUDGET));
+        System.setProperty(Configuration.BUFFERED_PARTS_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_BUFFERED_PARTS_SIZE));
+        System.setProperty(Configuration.METADATA_CACHE_TTL_PARAMETER,
+                Long.toString(Configuration.DEFAULT_METADATA_CACHE_TTL));
+        System.setProperty(Configuration.INDEX_CACHE_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_INDEX_CACHE_SIZE));
+        System.setProperty(Configuration.LAZY_INDEX_PARAMETER,
+                Boolean.toString(Configuration.DEFAULT_LAZY_INDEX));
+        System.setProperty(Configuration.HEAD_WINDOW_SIZE_PARAMETER,
+                Integer.toString(Configuration.DEFAULT_HEAD_WINDOW_SIZE));
+        System.setProperty(Configuration.BGZF_ALIGNED_PARTS_PARAMETER,
+                Boolean.toString(Configuration.DEFAULT_BGZF_ALIGNED_PARTS));
         System.setProperty(Configuration.INDEX_URL_PARAMETER, Configuration.DEFAULT_INDEX_URL);
         init();
     }
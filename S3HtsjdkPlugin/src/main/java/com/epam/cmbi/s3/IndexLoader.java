@@ -27,9 +27,13 @@ package com.epam.cmbi.s3;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import com.amazonaws.services.s3.AmazonS3URI;
-import com.amazonaws.util.IOUtils;
+import com.epam.cmbi.s3.parallel.ExecutorsFactory;
+import com.epam.cmbi.s3.parallel.IndexCache;
+import com.epam.cmbi.s3.parallel.S3ParallelStream;
 import htsjdk.samtools.seekablestream.SeekableMemoryStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.Log;
@@ -41,20 +45,43 @@ class IndexLoader {
     private static final String BAM_BAI_EXTENSION = "bam.bai";
     private static final String BAI_EXTENSION = "bai";
     private final S3Client client;
+    private final IndexCache indexCache;
 
     IndexLoader(S3Client client) {
         this.client = client;
+        this.indexCache = IndexCache.getInstance();
     }
 
     /**
      * A method that seeks and downloads the index for the set BAM URI.
      * Seeks an index file with the same name in the BAM directory
-     * in case there's no custom index URI specified
+     * in case there's no custom index URI specified.
+     * The index is taken from the IndexCache if the same index file was loaded before.
      *
      * @param bamURI an http address of the required file.
      * @return A SeekableStream optional on index file URI
      */
     Optional<SeekableStream> loadIndex(AmazonS3URI bamURI) throws IOException {
+        Optional<AmazonS3URI> index = findIndex(bamURI);
+        if (!index.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(loadIndexFile(index.get()));
+    }
+
+    /**
+     * A method that seeks the index for the set BAM URI like loadIndex does,
+     * but returns a stream that downloads the index only when it is read for the first time.
+     *
+     * @param bamURI an http address of the required file.
+     * @return A SeekableStream optional on index file URI
+     */
+    Optional<SeekableStream> lazyIndex(AmazonS3URI bamURI) {
+        return findIndex(bamURI).map(indexURI ->
+                new LazyIndexStream(indexURI.toString(), () -> loadIndexFile(indexURI)));
+    }
+
+    private Optional<AmazonS3URI> findIndex(AmazonS3URI bamURI) {
         LOG.info("Trying to set index file for " + bamURI.toString());
         Optional<AmazonS3URI> index = providedIndexURI()
                 .map(Optional::of)
@@ -62,22 +89,57 @@ class IndexLoader {
 
         if (!index.isPresent()) {
             LOG.info("Index wasn't provided for " + bamURI.toString());
-            return Optional.empty();
         }
+        return index;
+    }
 
-        LOG.info("Start download index: " + index.get());
-        AmazonS3URI indexURI = index.get();
-        S3InputStreamFactory streamFactory = new S3InputStreamFactory(client);
-        InputStream stream = streamFactory.loadFully(indexURI);
+    private SeekableStream loadIndexFile(AmazonS3URI indexURI) throws IOException {
         long fileSize = client.getFileSize(indexURI);
-        byte[] buffer = IOUtils.toByteArray(stream);
-
-        if (fileSize != buffer.length) {
-            throw new IOException("Failed to fully download index " + indexURI);
+        String eTag = client.getETag(indexURI);
+        Optional<byte[]> cachedIndex =
+                indexCache.get(indexURI.getBucket(), indexURI.getKey(), eTag, fileSize);
+        if (cachedIndex.isPresent()) {
+            LOG.info("Index was taken from the cache: " + indexURI);
+            return new SeekableMemoryStream(cachedIndex.get(), indexURI.toString());
         }
 
-        LOG.info("Finished download index: " + index.get());
-        return Optional.of(new SeekableMemoryStream(buffer, indexURI.toString()));
+        LOG.info("Start download index: " + indexURI);
+        byte[] buffer = download(indexURI, fileSize);
+
+        LOG.info("Finished download index: " + indexURI);
+        indexCache.put(indexURI.getBucket(), indexURI.getKey(), eTag, buffer);
+        return new SeekableMemoryStream(buffer, indexURI.toString());
+    }
+
+    /**
+     * A method that downloads the index into a buffer of the index size.
+     * An index larger than the max download part size is loaded in parallel parts,
+     * a smaller one with a single request.
+     *
+     * @param indexURI the index file URI.
+     * @param fileSize the index file size.
+     * @return the index file content.
+     */
+    private byte[] download(AmazonS3URI indexURI, long fileSize) throws IOException {
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Index " + indexURI + " is too large: " + fileSize + " bytes");
+        }
+        byte[] buffer = new byte[(int) fileSize];
+        S3InputStreamFactory streamFactory = new S3InputStreamFactory(client);
+        try (InputStream stream = fileSize > Configuration.getMaxDownloadPartSize()
+                ? new S3ParallelStream(indexURI, 0, fileSize, streamFactory)
+                : streamFactory.loadFully(indexURI)) {
+            int loaded = 0;
+            int read = 0;
+            while (loaded < buffer.length && read >= 0) {
+                read = stream.read(buffer, loaded, buffer.length - loaded);
+                loaded += Math.max(read, 0);
+            }
+            if (loaded != buffer.length || stream.read() >= 0) {
+                throw new IOException("Failed to fully download index " + indexURI);
+            }
+        }
+        return buffer;
     }
 
     /**
@@ -97,6 +159,7 @@ class IndexLoader {
 
     /**
      * A method for when no custom index URI is set. Try find index file with same name and location.
+     * Both names are probed at once, the ".bam.bai" one is preferred if both exist.
      *
      * @param bamURI the BAM file URI.
      * @return Optional of index URI.
@@ -105,10 +168,33 @@ class IndexLoader {
         String uri = bamURI.toString();
         String uriWithNoFormat = uri.substring(0, uri.length() - BAM_EXTENSION_LENGTH);
 
-        Optional<AmazonS3URI> indBamBai = Optional.of(new AmazonS3URI(uriWithNoFormat + BAM_BAI_EXTENSION))
-                .filter(client::isFileExisting);
-        Optional<AmazonS3URI> indBai = Optional.of(new AmazonS3URI(uriWithNoFormat + BAI_EXTENSION))
-                .filter(client::isFileExisting);
-        return indBamBai.map(Optional::of).orElseGet(() -> indBai);
+        CompletableFuture<Optional<AmazonS3URI>> indBamBai =
+                probe(new AmazonS3URI(uriWithNoFormat + BAM_BAI_EXTENSION));
+        CompletableFuture<Optional<AmazonS3URI>> indBai =
+                probe(new AmazonS3URI(uriWithNoFormat + BAI_EXTENSION));
+        return join(indBamBai).map(Optional::of).orElseGet(() -> join(indBai));
+    }
+
+    private CompletableFuture<Optional<AmazonS3URI>> probe(AmazonS3URI indexURI) {
+        return CompletableFuture.supplyAsync(
+                () -> Optional.of(indexURI).filter(client::isFileExisting),
+                ExecutorsFactory.getTasksExecutor());
+    }
+
+    /**
+     * Waits for the future and rethrows the unchecked exception it failed with as is.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3;
+
+import java.io.IOException;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * An index stream that downloads the index on its first use, so that the readers
+ * which never query the file by interval don't download the index at all.
+ * The source of the stream is known without the download.
+ */
+class LazyIndexStream extends SeekableStream {
+
+    private static final Log LOG = Log.getInstance(LazyIndexStream.class);
+
+    /**
+     * Downloads the index content.
+     */
+    interface Loader {
+        SeekableStream load() throws IOException;
+    }
+
+    private final String source;
+    private final Loader loader;
+    private SeekableStream index;
+    private boolean closed;
+
+    /**
+     * @param source the index file URI.
+     * @param loader the index download, called once on the first use of the stream.
+     */
+    LazyIndexStream(String source, Loader loader) {
+        this.source = source;
+        this.loader = loader;
+    }
+
+    private synchronized SeekableStream index() throws IOException {
+        if (closed) {
+            throw new IOException("The index stream " + source + " is closed");
+        }
+        if (index == null) {
+            LOG.debug("The index ", source, " is used for the first time");
+            index = loader.load();
+        }
+        return index;
+    }
+
+    @Override
+    public long length() {
+        try {
+            return index().length();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e.getMessage() + " failed to download index", e);
+        }
+    }
+
+    @Override
+    public long position() throws IOException {
+        return index().position();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        index().seek(position);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return index().read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        return index().read(buffer, offset, length);
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return index().eof();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+}
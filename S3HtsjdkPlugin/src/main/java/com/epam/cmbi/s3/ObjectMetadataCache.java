@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import htsjdk.samtools.util.Log;
+import org.apache.http.HttpStatus;
+
+/**
+ * A cache of the object metadata received with HEAD requests: the existence, the size
+ * and the ETag of the object. Missing objects are cached as well. The entries expire
+ * after the time to live, and concurrent lookups of the same object share one request.
+ */
+class ObjectMetadataCache {
+
+    private static final Log LOG = Log.getInstance(ObjectMetadataCache.class);
+
+    static final int MAX_ENTRIES = 10_000;
+
+    private final Function<AmazonS3URI, ObjectMetadata> headRequest;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, CompletableFuture<ObjectInfo>> entries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param headRequest a function that requests the metadata of an object.
+     * @param ttlNanos    the time to keep the metadata for, 0 disables the cache.
+     */
+    ObjectMetadataCache(Function<AmazonS3URI, ObjectMetadata> headRequest, long ttlNanos) {
+        this(headRequest, ttlNanos, System::nanoTime);
+    }
+
+    ObjectMetadataCache(Function<AmazonS3URI, ObjectMetadata> headRequest, long ttlNanos,
+            LongSupplier nanoClock) {
+        this.headRequest = headRequest;
+        this.ttlNanos = ttlNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param uri an s3 URI.
+     * @return the cached object metadata, requested if it is not cached or expired.
+     */
+    ObjectInfo get(AmazonS3URI uri) {
+        String key = uri.getBucket() + "/" + uri.getKey();
+        while (true) {
+            CompletableFuture<ObjectInfo> lookup = new CompletableFuture<>();
+            CompletableFuture<ObjectInfo> existing = entries.putIfAbsent(key, lookup);
+            if (existing == null) {
+                load(uri, key, lookup);
+                return join(lookup);
+            }
+            ObjectInfo info = join(existing);
+            if (nanoClock.getAsLong() < info.expirationTime) {
+                return info;
+            }
+            entries.remove(key, existing);
+        }
+    }
+
+    private void load(AmazonS3URI uri, String key, CompletableFuture<ObjectInfo> lookup) {
+        if (entries.size() > MAX_ENTRIES) {
+            removeExpired();
+        }
+        long expirationTime = nanoClock.getAsLong() + ttlNanos;
+        try {
+            ObjectMetadata metadata = headRequest.apply(uri);
+            lookup.complete(new ObjectInfo(metadata.getContentLength(), metadata.getETag(), null,
+                    expirationTime));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == HttpStatus.SC_FORBIDDEN
+                    || e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                lookup.complete(new ObjectInfo(0, null, e, expirationTime));
+            } else {
+                failLookup(key, lookup, e);
+            }
+        } catch (RuntimeException | Error e) {
+            failLookup(key, lookup, e);
+        }
+        LOG.debug("Metadata was requested for ", uri.toString());
+    }
+
+    /**
+     * The failures other than a missing object are not cached. The lookup is completed
+     * on any failure, so that the lookups waiting for it don't hang.
+     */
+    private void failLookup(String key, CompletableFuture<ObjectInfo> lookup, Throwable e) {
+        entries.remove(key, lookup);
+        lookup.completeExceptionally(e);
+    }
+
+    private void removeExpired() {
+        long now = nanoClock.getAsLong();
+        entries.values().removeIf(lookup -> lookup.isDone() && !lookup.isCompletedExceptionally()
+                && lookup.join().expirationTime <= now);
+    }
+
+    private static ObjectInfo join(CompletableFuture<ObjectInfo> lookup) {
+        try {
+            return lookup.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * The metadata of an object, or the error of a missing object.
+     */
+    static final class ObjectInfo {
+        private final long contentLength;
+        private final String eTag;
+        private final AmazonS3Exception missingCause;
+        private final long expirationTime;
+
+        private ObjectInfo(long contentLength, String eTag, AmazonS3Exception missingCause,
+                long expirationTime) {
+            this.contentLength = contentLength;
+            this.eTag = eTag;
+            this.missingCause = missingCause;
+            this.expirationTime = expirationTime;
+        }
+
+        boolean exists() {
+            return missingCause == null;
+        }
+
+        /**
+         * @throws AmazonS3Exception if the object is missing.
+         */
+        long getContentLength() {
+            checkExists();
+            return contentLength;
+        }
+
+        /**
+         * @throws AmazonS3Exception if the object is missing.
+         */
+        String getETag() {
+            checkExists();
+            return eTag;
+        }
+
+        private void checkExists() {
+            if (missingCause != null) {
+                throw missingCause;
+            }
+        }
+    }
+}
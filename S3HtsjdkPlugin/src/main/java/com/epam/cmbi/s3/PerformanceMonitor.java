@@ -24,12 +24,21 @@
 
 package com.epam.cmbi.s3;
 
+import com.epam.cmbi.s3.parallel.BlockCache;
+import com.epam.cmbi.s3.parallel.BufferedPartsBudget;
+import com.epam.cmbi.s3.parallel.ConcurrencyController;
 import com.epam.cmbi.s3.parallel.ExecutorsFactory;
+import com.epam.cmbi.s3.parallel.IndexCache;
+import com.epam.cmbi.s3.parallel.PartBufferPool;
+import com.epam.cmbi.s3.parallel.RangePlanner;
+import com.epam.cmbi.s3.parallel.RetryBudget;
+import com.epam.cmbi.s3.parallel.S3ParallelStream;
 import htsjdk.samtools.util.Log;
 
 import java.text.DecimalFormat;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
 
 class PerformanceMonitor {
@@ -37,12 +46,21 @@ class PerformanceMonitor {
     private static final int MILLISEC_IN_SEC = 1000;
     private static final int SECS_IN_MINUTE = 60;
     private static final int KILO = 1024;
+    private static final double NANOS_IN_MILLISEC = 1_000_000;
 
     private static final Log log = Log.getInstance(PerformanceMonitor.class);
 
     private static volatile long startTime;
+    private static final AtomicBoolean started = new AtomicBoolean();
     private static final LongAdder dataLoaded = new LongAdder();
     private static final LongAdder requestCounter = new LongAdder();
+    private static final LongAdder prefetchCounter = new LongAdder();
+    private static final LongAdder prefetchRangesCounter = new LongAdder();
+    private static final LongAdder prefetchRequestCounter = new LongAdder();
+    private static final LongAdder prefetchRequestedBytes = new LongAdder();
+    private static final LongAdder prefetchFetchedBytes = new LongAdder();
+    private static final LongAdder openCounter = new LongAdder();
+    private static final LongAdder openNanos = new LongAdder();
 
     //Performance monitor is made daemon as we do not know when the InputStream
     //is going to be closed or if it even is, as HTSJDK doesn't always close the stream
@@ -69,14 +87,44 @@ class PerformanceMonitor {
         requestCounter.increment();
     }
 
+    /**
+     * A method for collecting the data about a query prefetch.
+     *
+     * @param plan     the plan of the prefetched ranges.
+     * @param requests number of range requests made for the plan.
+     */
+    static void logPrefetch(RangePlanner.Plan plan, int requests) {
+        prefetchCounter.increment();
+        prefetchRangesCounter.add(plan.getRequestedRangesCount());
+        prefetchRequestCounter.add(requests);
+        prefetchRequestedBytes.add(plan.getRequestedBytes());
+        prefetchFetchedBytes.add(plan.getFetchedBytes());
+    }
+
+    /**
+     * A method for collecting the time of a file open.
+     *
+     * @param nanos time from the open request to the reader created, in nanoseconds.
+     */
+    static void logOpen(long nanos) {
+        openCounter.increment();
+        openNanos.add(nanos);
+    }
+
     /**
      * A method for starting the monitoring.
-     * Performance monitor is being run in a separate thread.
+     * Performance monitor is being run in a separate thread, started by the first open.
+     * The full summary is logged once more at the JVM shutdown.
      */
     static void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
         startTime = System.currentTimeMillis();
+        Runtime.getRuntime().addShutdownHook(
+                new Thread(PerformanceMonitor::printFullSummary, "PerformanceLogShutdown"));
         executor.scheduleAtFixedRate(
-                PerformanceMonitor::printSummary,
+                PerformanceMonitor::printFullSummary,
                 INITIAL_DELAY_MILLISECONDS,
                 LOG_PERIOD_MILLISECONDS,
                 TimeUnit.MILLISECONDS);
@@ -99,6 +147,39 @@ class PerformanceMonitor {
                 + " MB/s. Time Elapsed: "
                 + new DecimalFormat("#0.00").format(elapsedMinutes) + " minutes"
         );
+    }
 
+    /**
+     * A method for logging the download summary followed by the process-wide counters
+     * of the prefetch, the buffers, the caches and the connections.
+     */
+    static void printFullSummary() {
+        printSummary();
+        if (prefetchCounter.longValue() > 0) {
+            double wastedRatio = 1 - prefetchRequestedBytes.doubleValue()
+                    / prefetchFetchedBytes.doubleValue();
+            log.info(prefetchCounter.longValue()
+                    + " queries prefetched: "
+                    + prefetchRangesCounter.longValue()
+                    + " ranges requested, "
+                    + prefetchRequestCounter.longValue()
+                    + " range requests made. Wasted bytes ratio: "
+                    + new DecimalFormat("#0.000").format(wastedRatio));
+        }
+        if (openCounter.longValue() > 0) {
+            log.info(openCounter.longValue()
+                    + " files opened. Average open time: "
+                    + new DecimalFormat("#0.00").format(
+                            openNanos.doubleValue() / openCounter.longValue() / NANOS_IN_MILLISEC)
+                    + " ms");
+        }
+        log.info(PartBufferPool.getSummary());
+        log.info(ExecutorsFactory.getSummary());
+        log.info(BlockCache.getSummary());
+        log.info(IndexCache.getSummary());
+        log.info(ConcurrencyController.getSummary());
+        log.info(S3ParallelStream.getHedgingSummary());
+        log.info(RetryBudget.getSummary());
+        log.info(BufferedPartsBudget.getSummary());
     }
 }
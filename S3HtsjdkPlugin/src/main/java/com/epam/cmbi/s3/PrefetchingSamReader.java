@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.epam.cmbi.s3.parallel.ByteRange;
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A SamReader wrapper for indexed BAM files on S3, which prefetches the data a query needs.
+ * Before an interval query is delegated, the chunks of the queried intervals are taken from
+ * the BAM index and the byte ranges of their BGZF blocks are prefetched in parallel by the
+ * S3SeekableStream, so that the seeks of the query iterator don't restart the download.
+ * Other reads are delegated as they are.
+ */
+class PrefetchingSamReader implements SamReader {
+
+    private static final Log LOG = Log.getInstance(PrefetchingSamReader.class);
+    private static final int BLOCK_OFFSET_BITS = 16;
+    private static final long BLOCK_OFFSET_MASK = 0xFFFF;
+
+    private final SamReader reader;
+    private final S3SeekableStream stream;
+
+    PrefetchingSamReader(SamReader reader, S3SeekableStream stream) {
+        this.reader = reader;
+        this.stream = stream;
+    }
+
+    /**
+     * A method that converts the chunks of the BAM index to the file ranges to load.
+     * A chunk is bounded by virtual file pointers; the range covers the compressed blocks
+     * from the chunk start block to the chunk end block, whose size is unknown,
+     * so the max compressed block size is taken for it.
+     *
+     * @param chunks     chunks of the BAM file.
+     * @param fileLength the BAM file length.
+     * @return the ranges of the file in the order of the chunks.
+     */
+    static List<ByteRange> toByteRanges(List<Chunk> chunks, long fileLength) {
+        List<ByteRange> ranges = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            long from = chunk.getChunkStart() >>> BLOCK_OFFSET_BITS;
+            long to = chunk.getChunkEnd() >>> BLOCK_OFFSET_BITS;
+            if ((chunk.getChunkEnd() & BLOCK_OFFSET_MASK) != 0) {
+                to += BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+            }
+            to = Math.min(to, fileLength);
+            if (from < to) {
+                ranges.add(new ByteRange(from, to));
+            }
+        }
+        return ranges;
+    }
+
+    private void prefetch(QueryInterval... intervals) {
+        if (!reader.hasIndex()) {
+            return;
+        }
+        BAMIndex index = reader.indexing().getIndex();
+        List<Chunk> chunks = new ArrayList<>();
+        for (QueryInterval interval : intervals) {
+            BAMFileSpan span = index.getSpanOverlapping(interval.referenceIndex, interval.start,
+                    interval.end);
+            //the index has no span for a reference without content
+            if (span != null) {
+                chunks.addAll(span.getChunks());
+            }
+        }
+
+        LOG.debug("Prefetching ", chunks.size(), " chunks for a query of ", intervals.length,
+                " intervals");
+        try {
+            stream.prefetch(toByteRanges(chunks, stream.length()));
+        } catch (IOException e) {
+            throw new RuntimeIOException(e.getMessage() + " failed to prefetch the query data", e);
+        }
+    }
+
+    private void prefetch(String sequence, int start, int end) {
+        int referenceIndex = getFileHeader().getSequenceIndex(sequence);
+        if (referenceIndex < 0) {
+            prefetch();
+        } else {
+            prefetch(new QueryInterval(referenceIndex, start, end));
+        }
+    }
+
+    @Override public SAMFileHeader getFileHeader() {
+        return reader.getFileHeader();
+    }
+
+    @Override public Type type() {
+        return reader.type();
+    }
+
+    @Override public String getResourceDescription() {
+        return reader.getResourceDescription();
+    }
+
+    @Override public boolean hasIndex() {
+        return reader.hasIndex();
+    }
+
+    @Override public Indexing indexing() {
+        return reader.indexing();
+    }
+
+    @Override public SAMRecordIterator iterator() {
+        return reader.iterator();
+    }
+
+    @Override public SAMRecordIterator query(String sequence, int start, int end,
+            boolean contained) {
+        prefetch(sequence, start, end);
+        return reader.query(sequence, start, end, contained);
+    }
+
+    @Override public SAMRecordIterator queryOverlapping(String sequence, int start, int end) {
+        prefetch(sequence, start, end);
+        return reader.queryOverlapping(sequence, start, end);
+    }
+
+    @Override public SAMRecordIterator queryContained(String sequence, int start, int end) {
+        prefetch(sequence, start, end);
+        return reader.queryContained(sequence, start, end);
+    }
+
+    @Override public SAMRecordIterator query(QueryInterval[] intervals, boolean contained) {
+        prefetch(intervals);
+        return reader.query(intervals, contained);
+    }
+
+    @Override public SAMRecordIterator queryOverlapping(QueryInterval[] intervals) {
+        prefetch(intervals);
+        return reader.queryOverlapping(intervals);
+    }
+
+    @Override public SAMRecordIterator queryContained(QueryInterval[] intervals) {
+        prefetch(intervals);
+        return reader.queryContained(intervals);
+    }
+
+    @Override public SAMRecordIterator queryUnmapped() {
+        return reader.queryUnmapped();
+    }
+
+    @Override public SAMRecordIterator queryAlignmentStart(String sequence, int start) {
+        return reader.queryAlignmentStart(sequence, start);
+    }
+
+    @Override public SAMRecord queryMate(SAMRecord rec) {
+        return reader.queryMate(rec);
+    }
+
+    @Override public void close() throws IOException {
+        reader.close();
+    }
+}
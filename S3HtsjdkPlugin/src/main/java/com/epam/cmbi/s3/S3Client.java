@@ -32,12 +32,17 @@ import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.AmazonS3URI;
-import com.amazonaws.services.s3.model.AmazonS3Exception;
 import htsjdk.samtools.util.Log;
-import org.apache.http.HttpStatus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Class provides configuration of AWS client and utility methods for S3
+ * Class provides configuration of AWS client and utility methods for S3.
+ * The object metadata is cached, so that opening a file makes one HEAD request per object.
+ * The files are opened with a client shared by the process, which keeps the connections
+ * and the credentials for the next opens.
  */
 public class S3Client {
 
@@ -45,12 +50,30 @@ public class S3Client {
 
     private static final int TIMEOUT = 10_000;
     private static final int MAX_RETRY = 10;
+    private static final ConcurrentMap<Integer, S3Client> SHARED_CLIENTS =
+            new ConcurrentHashMap<>();
     private final AWSCredentialsProviderChain providerChain;
     private final AmazonS3 aws;
+    private final ObjectMetadataCache metadataCache;
 
     public S3Client() {
         providerChain = new DefaultAWSCredentialsProviderChain();
         aws = configureAWS();
+        metadataCache = new ObjectMetadataCache(
+                uri -> aws.getObjectMetadata(uri.getBucket(), uri.getKey()),
+                TimeUnit.SECONDS.toNanos(Configuration.getMetadataCacheTtl()));
+    }
+
+    /**
+     * A method that returns the client shared by all opens with the current number
+     * of connections, the only setting the client depends on.
+     * The client is thread-safe.
+     *
+     * @return the shared client.
+     */
+    static S3Client getShared() {
+        return SHARED_CLIENTS.computeIfAbsent(Configuration.getMaxTotalConnections(),
+                connections -> new S3Client());
     }
 
     /**
@@ -74,20 +97,7 @@ public class S3Client {
      * @return a boolean value that shows whether the correct URI was provided
      */
     boolean isFileExisting(AmazonS3URI uri) {
-
-        boolean exist = true;
-
-        try {
-            aws.getObjectMetadata(uri.getBucket(), uri.getKey());
-        } catch (AmazonS3Exception e) {
-            if (e.getStatusCode() == HttpStatus.SC_FORBIDDEN
-                    || e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
-                exist = false;
-            } else {
-                throw e;
-            }
-        }
-        return exist;
+        return metadataCache.get(uri).exists();
     }
 
     /**
@@ -97,14 +107,22 @@ public class S3Client {
      * @return long value of the file size in bytes
      */
     long getFileSize(AmazonS3URI amazonURI){
-        return aws
-                .getObjectMetadata(amazonURI.getBucket(), amazonURI.getKey())
-                .getContentLength();
+        return metadataCache.get(amazonURI).getContentLength();
+    }
+
+    /**
+     * A method that returns the ETag of the file, which changes when the file content changes.
+     *
+     * @param amazonURI An s3 URI
+     * @return the ETag of the file
+     */
+    String getETag(AmazonS3URI amazonURI) {
+        return metadataCache.get(amazonURI).getETag();
     }
 
     private AmazonS3 configureAWS() {
         ClientConfiguration configuration = new ClientConfiguration()
-                .withMaxConnections(Configuration.getNumberOfConnections())
+                .withMaxConnections(Configuration.getMaxTotalConnections())
                 .withMaxErrorRetry(MAX_RETRY)
                 .withConnectionTimeout(TIMEOUT)
                 .withSocketTimeout(TIMEOUT)
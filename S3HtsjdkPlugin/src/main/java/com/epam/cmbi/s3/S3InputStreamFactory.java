@@ -83,30 +83,54 @@ public class S3InputStreamFactory {
         return loadFrom(obj, 0);
     }
 
+    /**
+     * Counts loaded bytes locally and flushes them to the PerformanceMonitor once per block,
+     * as the stream is read by a single thread and the monitor counters are shared.
+     */
     private static class MonitoredInputStream extends InputStream {
+        private static final int FLUSH_THRESHOLD = 64 * 1024;
+
         private final InputStream wrappedStream;
+        private int unreportedData;
 
         MonitoredInputStream(InputStream stream) {
             this.wrappedStream = stream;
         }
 
         @Override public int read() throws IOException {
-            PerformanceMonitor.logLoadedData(1);
-            return wrappedStream.read();
+            int byteRead = wrappedStream.read();
+            if (byteRead != -1) {
+                logLoadedData(1);
+            }
+            return byteRead;
         }
 
         @Override public int read(byte[] b) throws IOException {
-            int bytesRead = wrappedStream.read(b);
-            PerformanceMonitor.logLoadedData(bytesRead);
-            return bytesRead;
+            return read(b, 0, b.length);
         }
 
         @Override public int read(byte[] b, int off, int len) throws IOException {
             int bytesRead = wrappedStream.read(b, off, len);
-            PerformanceMonitor.logLoadedData(bytesRead);
+            if (bytesRead > 0) {
+                logLoadedData(bytesRead);
+            }
             return bytesRead;
         }
 
+        private void logLoadedData(int data) {
+            unreportedData += data;
+            if (unreportedData >= FLUSH_THRESHOLD) {
+                flushLoadedData();
+            }
+        }
+
+        private void flushLoadedData() {
+            if (unreportedData > 0) {
+                PerformanceMonitor.logLoadedData(unreportedData);
+                unreportedData = 0;
+            }
+        }
+
         @Override public long skip(long n) throws IOException {
             return wrappedStream.skip(n);
         }
@@ -116,6 +140,7 @@ public class S3InputStreamFactory {
         }
 
         @Override public void close() throws IOException {
+            flushLoadedData();
             wrappedStream.close();
         }
 
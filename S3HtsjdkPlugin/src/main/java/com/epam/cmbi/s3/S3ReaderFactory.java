@@ -27,8 +27,10 @@ package com.epam.cmbi.s3;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import com.amazonaws.services.s3.AmazonS3URI;
+import com.epam.cmbi.s3.parallel.ExecutorsFactory;
 import htsjdk.samtools.CustomReaderFactory;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
@@ -55,25 +57,73 @@ public class S3ReaderFactory implements CustomReaderFactory.ICustomReaderFactory
     @Override
     public SamReader open(URL url) {
         PerformanceMonitor.start();
+        long openStart = System.nanoTime();
         AmazonS3URI amazonURI = new AmazonS3URI(url.toString());
-        S3Client client = new S3Client();
+        S3Client client = S3Client.getShared();
         S3InputStreamFactory streamFactory = new S3InputStreamFactory(client);
 
-        //download index file if is possible, and then start download .bam file
+        //download index file if is possible, while the .bam file size is requested
+        //and its first part is downloaded; in the lazy mode the index file is only looked for
+        IndexLoader loader = new IndexLoader(client);
+        CompletableFuture<Optional<SeekableStream>> indexLoading =
+                CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return Configuration.isLazyIndex()
+                                ? loader.lazyIndex(amazonURI)
+                                : loader.loadIndex(amazonURI);
+                    } catch (IOException e) {
+                        throw new RuntimeIOException(e.getMessage() + " failed to download index",
+                                e);
+                    }
+                }, ExecutorsFactory.getTasksExecutor());
+
+        final S3SeekableStream stream;
+        try {
+            stream = new S3SeekableStream(amazonURI, client, streamFactory);
+        } catch (RuntimeException | Error e) {
+            cancelIndexLoading(indexLoading, e);
+            throw e;
+        }
         final Optional<SeekableStream> indexStream;
         try {
-            IndexLoader loader = new IndexLoader(client);
-            indexStream = loader.loadIndex(amazonURI);
-        } catch (IOException e) {
-            throw new RuntimeIOException(e.getMessage() + " failed to download index", e);
+            indexStream = IndexLoader.join(indexLoading);
+        } catch (RuntimeException e) {
+            try {
+                stream.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
         }
 
-        SeekableStream stream = new S3SeekableStream(amazonURI, client, streamFactory);
         SamReaderFactory factory = SamReaderFactory.makeDefault();
         SamInputResource inputResource = SamInputResource.of(stream);
 
         indexStream.ifPresent(inputResource::index);
 
-        return factory.open(inputResource);
+        SamReader reader = factory.open(inputResource);
+        PerformanceMonitor.logOpen(System.nanoTime() - openStart);
+        if (reader.hasIndex() && reader.type() == SamReader.Type.BAM_TYPE) {
+            return new PrefetchingSamReader(reader, stream);
+        }
+        return reader;
+    }
+
+    /**
+     * Stops the loading of the index of a file which failed to open.
+     * The index stream is closed if it is already loaded.
+     */
+    private static void cancelIndexLoading(
+            CompletableFuture<Optional<SeekableStream>> indexLoading, Throwable openFailure) {
+        if (indexLoading.cancel(true)) {
+            return;
+        }
+        indexLoading.thenAccept(index -> index.ifPresent(indexStream -> {
+            try {
+                indexStream.close();
+            } catch (IOException closeException) {
+                openFailure.addSuppressed(closeException);
+            }
+        }));
     }
 }
@@ -26,8 +26,13 @@ package com.epam.cmbi.s3;
 
 import java.io.IOException;
 import java.io.InputStream;
-import org.apache.commons.compress.utils.CountingInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import com.amazonaws.services.s3.AmazonS3URI;
+import com.epam.cmbi.s3.parallel.BlockCache;
+import com.epam.cmbi.s3.parallel.ByteRange;
+import com.epam.cmbi.s3.parallel.RangePlanner;
 import com.epam.cmbi.s3.parallel.S3ParallelStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.Log;
@@ -35,43 +40,130 @@ import htsjdk.samtools.util.RuntimeIOException;
 
 /**
  * Wrapper class for S3ParallelStream that supports @<code>seek()</code> method.
- * If position skip requested by seek() is small, just skips bytes. Otherwise, recreates stream.
+ * If the position requested by seek() is inside the window of the retained and the prefetched
+ * parts, moves the stream within the window. Otherwise, recreates stream.
+ * Besides the sequential stream, it may hold a stream that loads only the ranges
+ * prefetched for a query; seeks into these ranges are served by that stream and
+ * the sequential stream is stopped, so that the rest of the file isn't read ahead.
+ * A read that reaches the parts dropped by a forward seek of the sequential stream loads
+ * only the dropped range with another stream and then continues with the parts
+ * the sequential stream has loaded after it.
+ * The seeks to the last bytes of the file, like the check of the BGZF EOF block,
+ * are served from the tail window, loaded once with a single request; the sequential
+ * stream keeps loading at its position meanwhile.
  */
 class S3SeekableStream extends SeekableStream {
 
     private static final Log log = Log.getInstance(S3SeekableStream.class);
-    private static final long SEEK_MIN_DISTANCE =
-            Configuration.getNumberOfConnections() *
-                    (Configuration.getMaxDownloadPartSize() + Configuration.getMinDownloadPartSize())
-                    / 2;
+    private static final int EOF = -1;
 
     private final AmazonS3URI s3Source;
-    private CountingInputStream currentDataStream;
     private final long length;
-    private long offset;
+    private final String eTag;
+
+    /**
+     * The sequential stream, null if it is stopped.
+     */
+    private S3ParallelStream currentDataStream;
+    /**
+     * The stream of the prefetched ranges, null if there are none.
+     */
+    private S3ParallelStream prefetchedDataStream;
+    private RangePlanner.Plan prefetchPlan;
+    /**
+     * The stream of the range dropped by a seek of the sequential stream, null if
+     * it isn't read.
+     */
+    private S3ParallelStream gapDataStream;
+    /**
+     * One of the streams above, null if the sequential stream has to be
+     * started on the next read at the pending position.
+     */
+    private S3ParallelStream activeStream;
+    private long pendingPosition;
+
+    static final int TAIL_WINDOW_SIZE = 64 * 1024;
+    /**
+     * The last bytes of the file positioned at the next byte to read from them,
+     * null until the first seek to the tail window.
+     */
+    private ByteBuffer tail;
+    private boolean readingTail;
 
     private final S3InputStreamFactory factory;
+    private final RangePlanner rangePlanner =
+            new RangePlanner(Configuration.getRangeGapThreshold());
 
     S3SeekableStream(AmazonS3URI source, S3Client client, S3InputStreamFactory streamFactory) {
         this.s3Source = source;
         this.factory = streamFactory;
         length = client.getFileSize(s3Source);
-        recreateInnerStream();
+        eTag = BlockCache.isSharedCacheEnabled() ? client.getETag(s3Source) : null;
+        recreateInnerStream(0);
+    }
+
+    private void recreateInnerStream(long offset) {
+        closeCurrentDataStream();
+        this.currentDataStream = new S3ParallelStream(s3Source, offset, length(), factory, eTag,
+                length());
+        activeStream = currentDataStream;
+        log.debug("A new data stream was launched on offset = ", offset);
     }
 
-    private void recreateInnerStream() {
+    private void closeCurrentDataStream() {
         if (null != currentDataStream) {
+            if (activeStream == currentDataStream) {
+                pendingPosition = currentDataStream.position();
+                activeStream = null;
+            }
             try {
                 currentDataStream.close();
             } catch (IOException e) {
                 throw new RuntimeIOException(e.getMessage() + "failed to close the data stream", e);
             }
+            currentDataStream = null;
         }
+    }
 
-        final InputStream fileOnOffsetDataStream =
-                new S3ParallelStream(s3Source, offset, length(), factory);
-        this.currentDataStream = new CountingWithSkipInputStream(fileOnOffsetDataStream);
-        log.debug("A new data stream was launched on offset = ", offset);
+    /**
+     * A method that starts loading the ranges of the file a query is going to read,
+     * in parallel and ahead of the reads. The ranges separated by small gaps are fetched
+     * together by the RangePlanner. The previously prefetched ranges are dropped.
+     *
+     * @param ranges ranges of the file in any order.
+     */
+    void prefetch(List<ByteRange> ranges) throws IOException {
+        closePrefetchedDataStream();
+
+        RangePlanner.Plan plan = rangePlanner.plan(ranges);
+        if (!plan.getFetchRanges().isEmpty()) {
+            prefetchedDataStream = new S3ParallelStream(s3Source, plan.getFetchRanges(), factory,
+                    eTag, length());
+            prefetchPlan = plan;
+            log.debug("Prefetching for ", s3Source, ": ", plan);
+        }
+    }
+
+    /**
+     * Stops the prefetched ranges stream and reports the requests it made.
+     */
+    private void closePrefetchedDataStream() throws IOException {
+        if (prefetchedDataStream == null) {
+            return;
+        }
+        if (activeStream == prefetchedDataStream) {
+            pendingPosition = prefetchedDataStream.position();
+            activeStream = null;
+        }
+        prefetchedDataStream.close();
+
+        int requests = prefetchedDataStream.getRequestCount();
+        PerformanceMonitor.logPrefetch(prefetchPlan, requests);
+        log.debug("Prefetch for ", s3Source, " made ", requests, " range requests for ",
+                prefetchPlan.getRequestedRangesCount(), " requested ranges, wasted bytes ratio ",
+                String.format("%.3f", prefetchPlan.getWastedBytesRatio()));
+        prefetchedDataStream = null;
+        prefetchPlan = null;
     }
 
     @Override
@@ -81,7 +173,10 @@ class S3SeekableStream extends SeekableStream {
 
     @Override
     public long position() throws IOException {
-        return offset + currentDataStream.getBytesRead();
+        if (readingTail) {
+            return tailStart() + tail.position();
+        }
+        return activeStream == null ? pendingPosition : activeStream.position();
     }
 
     /**
@@ -91,35 +186,205 @@ class S3SeekableStream extends SeekableStream {
      */
     @Override
     public void seek(long targetPosition) throws IOException {
-        final long distance = targetPosition - position();
         log.debug("Seeking from ", position(), " to ", targetPosition);
+        readingTail = false;
+
+        if (gapDataStream != null) {
+            if (gapDataStream.seek(targetPosition)) {
+                log.debug("Seek inside the dropped range, position = ", targetPosition);
+                activeStream = gapDataStream;
+                return;
+            }
+            closeGapDataStream();
+        }
 
-        if (distance < SEEK_MIN_DISTANCE && distance > 0) {
-            log.debug("Short seek distance - skip instead. Distance: ", distance);
-            long skipped = currentDataStream.skip(distance);
-            log.debug("Skipped bytes: ", skipped);
+        if (prefetchedDataStream != null && prefetchedDataStream.seek(targetPosition)) {
+            log.debug("Seek inside the prefetched ranges, position = ", targetPosition);
+            closeCurrentDataStream();
+            activeStream = prefetchedDataStream;
+            return;
+        }
+
+        if (currentDataStream != null && currentDataStream.seek(targetPosition)) {
+            log.debug("Seek inside the loaded window, position = ", targetPosition);
+            activeStream = currentDataStream;
+            return;
+        }
+
+        if (targetPosition >= tailStart() && targetPosition <= length()) {
+            log.debug("Seek inside the tail window, position = ", targetPosition);
+            seekTail(targetPosition);
             return;
         }
 
-        this.offset = targetPosition;
         log.debug("Seek on position = ", targetPosition);
-        recreateInnerStream();
+        closeCurrentDataStream();
+        activeStream = null;
+        pendingPosition = targetPosition;
+    }
+
+    /**
+     * Returns the stream to read from, the sequential stream is started at the pending
+     * position if there is no active stream.
+     */
+    private S3ParallelStream activeStream() {
+        if (activeStream == null) {
+            recreateInnerStream(pendingPosition);
+        }
+        return activeStream;
+    }
+
+    /**
+     * Moves the reads on if they reached the end of a prefetched range, of the range dropped
+     * by a seek, or the parts dropped by a seek of the sequential stream, before the end of
+     * the file. The reads continue with the parts the sequential stream has loaded at
+     * the current position; if it has loaded the parts after the dropped ones, the dropped
+     * range is loaded on its own, otherwise the sequential stream is started anew.
+     *
+     * @return true if the read should be repeated on the active stream.
+     */
+    private boolean leaveLoadedParts() throws IOException {
+        if (activeStream == null || eof()) {
+            return false;
+        }
+        long position = position();
+        boolean readingSequentialStream = activeStream == currentDataStream;
+        closeGapDataStream();
+        if (currentDataStream != null && !readingSequentialStream
+                && currentDataStream.seek(position)) {
+            log.debug("Read continues with the loaded parts, position = ", position);
+            activeStream = currentDataStream;
+            return true;
+        }
+        long loadedPosition = currentDataStream == null
+                ? -1 : currentDataStream.getLoadedPositionAfter(position);
+        if (readingSequentialStream && loadedPosition > position) {
+            log.debug("Loading the dropped range from ", position, " to ", loadedPosition);
+            gapDataStream = new S3ParallelStream(s3Source, position, loadedPosition, factory,
+                    eTag, length());
+            activeStream = gapDataStream;
+            return true;
+        }
+        log.debug("Read past the loaded parts, position = ", position);
+        recreateInnerStream(position);
+        return true;
+    }
+
+    private void closeGapDataStream() throws IOException {
+        if (gapDataStream == null) {
+            return;
+        }
+        if (activeStream == gapDataStream) {
+            pendingPosition = gapDataStream.position();
+            activeStream = null;
+        }
+        gapDataStream.close();
+        gapDataStream = null;
+    }
+
+    private long tailStart() {
+        return Math.max(0, length() - TAIL_WINDOW_SIZE);
+    }
+
+    /**
+     * Moves the reads to the tail window, which is loaded on the first call.
+     */
+    private void seekTail(long targetPosition) throws IOException {
+        if (tail == null) {
+            byte[] tailData = new byte[(int) (length() - tailStart())];
+            try (InputStream stream = factory.loadFromTo(s3Source, tailStart(), length())) {
+                int loaded = 0;
+                int read = 0;
+                while (loaded < tailData.length && read != EOF) {
+                    read = stream.read(tailData, loaded, tailData.length - loaded);
+                    loaded += Math.max(read, 0);
+                }
+                if (loaded != tailData.length) {
+                    throw new IOException("Failed to load the tail of " + s3Source);
+                }
+            }
+            tail = ByteBuffer.wrap(tailData);
+            log.debug("The tail window of ", s3Source, " was loaded, ", tailData.length, " bytes");
+        }
+        tail.position((int) (targetPosition - tailStart()));
+        readingTail = true;
     }
 
     @Override
     public int read() throws IOException {
-        return currentDataStream.read();
+        if (readingTail) {
+            return tail.hasRemaining() ? tail.get() & 0xFF : EOF;
+        }
+        int result = activeStream().read();
+        if (result == EOF && leaveLoadedParts()) {
+            result = activeStream.read();
+        }
+        return result;
     }
 
     @Override
     public int read(byte[] buffer, int offset, int length) throws IOException {
-        return currentDataStream.read(buffer, offset, length);
+        if (readingTail) {
+            if (length == 0) {
+                return 0;
+            }
+            int result = Math.min(length, tail.remaining());
+            tail.get(buffer, offset, result);
+            return result == 0 ? EOF : result;
+        }
+        int result = activeStream().read(buffer, offset, length);
+        if (result == EOF && leaveLoadedParts()) {
+            result = activeStream.read(buffer, offset, length);
+        }
+        return result;
+    }
+
+    /**
+     * A method for NIO-aware callers that reads data into a buffer,
+     * without a copy into an intermediate heap array.
+     *
+     * @param buffer the buffer into which the data is read.
+     * @return the total number of bytes read, or -1 if the end of the stream has been reached.
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        if (readingTail) {
+            if (!buffer.hasRemaining()) {
+                return 0;
+            }
+            int result = Math.min(buffer.remaining(), tail.remaining());
+            ByteBuffer source = tail.duplicate();
+            source.limit(source.position() + result);
+            buffer.put(source);
+            tail.position(source.position());
+            return result == 0 ? EOF : result;
+        }
+        int result = activeStream().read(buffer);
+        if (result == EOF && leaveLoadedParts()) {
+            result = activeStream.read(buffer);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (readingTail) {
+            int skipped = (int) Math.max(0, Math.min(n, tail.remaining()));
+            tail.position(tail.position() + skipped);
+            return skipped;
+        }
+        long skipped = activeStream().skip(n);
+        if (skipped < n && leaveLoadedParts()) {
+            skipped += activeStream.skip(n - skipped);
+        }
+        return skipped;
     }
 
     @Override
     public void close() throws IOException {
         PerformanceMonitor.printSummary();
-        currentDataStream.close();
+        closeGapDataStream();
+        closeCurrentDataStream();
+        closePrefetchedDataStream();
     }
 
     @Override
@@ -131,21 +396,4 @@ class S3SeekableStream extends SeekableStream {
     public String getSource() {
         return s3Source.toString();
     }
-
-    /**
-     * We should count data skipped because we want to count all data loaded.
-     */
-    private static class CountingWithSkipInputStream extends CountingInputStream {
-        CountingWithSkipInputStream(InputStream in) {
-            super(in);
-        }
-
-        @Override
-        public long skip(long n) throws IOException {
-            long bytesSkipped = in.skip(n);
-            count(bytesSkipped);
-
-            return bytesSkipped;
-        }
-    }
 }
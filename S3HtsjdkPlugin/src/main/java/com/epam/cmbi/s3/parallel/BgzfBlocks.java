@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that finds the BGZF block boundaries in the downloaded data by walking
+ * the block headers: each block is a gzip member with the "BC" extra subfield,
+ * which holds the total block size minus one.
+ */
+final class BgzfBlocks {
+
+    /**
+     * The gzip member IDs, the deflate compression method and the extra field flag.
+     */
+    private static final int[] BLOCK_MAGIC = {0x1f, 0x8b, 8, 4};
+    private static final int XLEN_OFFSET = 10;
+    private static final int EXTRA_OFFSET = 12;
+    private static final int HEADER_SIZE = 18;
+    private static final int SUBFIELD_HEADER_SIZE = 4;
+    private static final int BSIZE_LENGTH = 2;
+    private static final int SI1 = 'B';
+    private static final int SI2 = 'C';
+
+    /**
+     * The largest block size the 16-bit block size field can hold.
+     */
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private static final int INCOMPLETE = 0;
+    private static final int INVALID = -1;
+
+    private BgzfBlocks() {
+        //no operations
+    }
+
+    /**
+     * @param data the data from the start to the limit of the buffer, starting at a block.
+     * @return the length of the whole blocks at the start of the data, 0 if the first block
+     * isn't complete, or -1 if the data doesn't start with a BGZF block
+     * or has something else than BGZF blocks after them.
+     */
+    static int wholeBlocksLength(ByteBuffer data) {
+        return wholeBlocksLength(data, 0);
+    }
+
+    /**
+     * @param data the data from the start to the limit of the buffer.
+     * @param from the offset in the data of a block start.
+     * @return the length of the whole blocks from the offset, 0 if the first block
+     * isn't complete, or -1 if there is no BGZF block at the offset
+     * or there is something else than BGZF blocks after them.
+     */
+    static int wholeBlocksLength(ByteBuffer data, int from) {
+        int position = from;
+        while (true) {
+            int blockSize = blockSize(data, position);
+            if (blockSize == INVALID) {
+                return INVALID;
+            }
+            if (blockSize == INCOMPLETE) {
+                return position - from;
+            }
+            position += blockSize;
+        }
+    }
+
+    /**
+     * @return the size of the block starting at the position, INCOMPLETE if it ends
+     * after the limit of the data, or INVALID if there is no block header at the position.
+     */
+    private static int blockSize(ByteBuffer data, int position) {
+        int available = data.limit() - position;
+        if (available < HEADER_SIZE) {
+            return available > 0 && !hasBlockMagic(data, position, available)
+                    ? INVALID : INCOMPLETE;
+        }
+        if (!hasBlockMagic(data, position, available)) {
+            return INVALID;
+        }
+
+        int extraEnd = position + EXTRA_OFFSET + unsignedShort(data, position + XLEN_OFFSET);
+        if (extraEnd > data.limit()) {
+            return INCOMPLETE;
+        }
+        for (int subfield = position + EXTRA_OFFSET; subfield + SUBFIELD_HEADER_SIZE <= extraEnd;
+             subfield += SUBFIELD_HEADER_SIZE + unsignedShort(data, subfield + 2)) {
+            if ((data.get(subfield) & 0xff) == SI1 && (data.get(subfield + 1) & 0xff) == SI2
+                    && unsignedShort(data, subfield + 2) == BSIZE_LENGTH
+                    && subfield + SUBFIELD_HEADER_SIZE + BSIZE_LENGTH <= extraEnd) {
+                int blockSize = unsignedShort(data, subfield + SUBFIELD_HEADER_SIZE) + 1;
+                if (blockSize < HEADER_SIZE) {
+                    return INVALID;
+                }
+                return blockSize <= available ? blockSize : INCOMPLETE;
+            }
+        }
+        return INVALID;
+    }
+
+    /**
+     * Checks the gzip member magic with the extra field flag, as much of it as is available.
+     */
+    private static boolean hasBlockMagic(ByteBuffer data, int position, int available) {
+        for (int i = 0; i < Math.min(available, BLOCK_MAGIC.length); i++) {
+            if ((data.get(position + i) & 0xff) != BLOCK_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int unsignedShort(ByteBuffer data, int position) {
+        return (data.get(position) & 0xff) | (data.get(position + 1) & 0xff) << 8;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.epam.cmbi.s3.Configuration;
+import htsjdk.samtools.util.Log;
+
+/**
+ * An in-process cache of fixed-size file blocks, shared by all streams.
+ * Blocks are aligned to the block size and keyed by the object identity
+ * (bucket, key and ETag) and the block index. The least recently used blocks
+ * are evicted when the cache exceeds its byte budget.
+ * If a cache directory is configured, the blocks are also kept on the local disk
+ * in the DiskBlockCache and the blocks missing in memory are looked up there.
+ */
+public final class BlockCache {
+
+    private static final Log LOG = Log.getInstance(BlockCache.class);
+
+    private static final BlockCache INSTANCE = new BlockCache(
+            Configuration.getBlockCacheSize(), Configuration.getBlockCacheBlockSize(),
+            createDiskCache());
+
+    private final long capacity;
+    private final int blockSize;
+    private final DiskBlockCache diskCache;
+    private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder hitBytes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    BlockCache(long capacity, int blockSize) {
+        this(capacity, blockSize, null);
+    }
+
+    /**
+     * @param diskCache the disk tier of the cache, null to keep the blocks in memory only.
+     */
+    BlockCache(long capacity, int blockSize, DiskBlockCache diskCache) {
+        this.capacity = capacity;
+        this.blockSize = blockSize;
+        this.diskCache = diskCache;
+    }
+
+    private static DiskBlockCache createDiskCache() {
+        if (!Configuration.getDiskCacheDirectory().isPresent()) {
+            return null;
+        }
+        try {
+            return new DiskBlockCache(Configuration.getDiskCacheDirectory().get(),
+                    Configuration.getDiskCacheSize());
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to open the disk block cache, blocks are kept in memory only");
+            return null;
+        }
+    }
+
+    static BlockCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param bucket the object bucket.
+     * @param key    the object key.
+     * @param eTag   the object ETag, so that a changed object doesn't hit the old blocks.
+     * @return an identity of the object content for the cache.
+     */
+    static String objectId(String bucket, String key, String eTag) {
+        return bucket + "/" + key + "@" + eTag;
+    }
+
+    boolean isEnabled() {
+        return isMemoryEnabled() || diskCache != null;
+    }
+
+    private boolean isMemoryEnabled() {
+        return capacity >= blockSize;
+    }
+
+    /**
+     * @return true if the shared cache is configured, the streams need the object ETag then.
+     */
+    public static boolean isSharedCacheEnabled() {
+        return INSTANCE.isEnabled();
+    }
+
+    /**
+     * @return the disk tier of the cache, null if it is not configured.
+     */
+    DiskBlockCache getDiskCache() {
+        return diskCache;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * A method that copies a file range from the cached blocks into a part buffer.
+     * The range is served only if all of its blocks are cached. The last block of an object
+     * is shorter than the block size, it serves only the ranges which end within it.
+     *
+     * @param objectId the object identity.
+     * @param from     range start position.
+     * @param to       range end position.
+     * @param part     a buffer with the range length limit to copy the data to.
+     * @return false if some block of the range is not cached, the part buffer is not filled then.
+     */
+    boolean copyRange(String objectId, long from, long to, ByteBuffer part) {
+        List<byte[]> rangeBlocks = new ArrayList<>();
+        for (long index = from / blockSize; index <= (to - 1) / blockSize; index++) {
+            byte[] block = getBlock(objectId, index);
+            if (block == null || block.length < Math.min(blockSize, to - index * blockSize)) {
+                misses.increment();
+                return false;
+            }
+            rangeBlocks.add(block);
+        }
+
+        long blockStart = (from / blockSize) * blockSize;
+        for (byte[] block : rangeBlocks) {
+            int copyFrom = (int) Math.max(0, from - blockStart);
+            int copyTo = (int) Math.min(blockSize, to - blockStart);
+            ByteBuffer destination = part.duplicate();
+            destination.position((int) (blockStart + copyFrom - from));
+            destination.put(block, copyFrom, copyTo - copyFrom);
+            blockStart += blockSize;
+        }
+        hits.increment();
+        hitBytes.add(to - from);
+        return true;
+    }
+
+    /**
+     * Looks the block up in memory and then on the disk, the block read from the disk
+     * is kept in memory.
+     */
+    private byte[] getBlock(String objectId, long index) {
+        byte[] block;
+        synchronized (this) {
+            block = blocks.get(new BlockKey(objectId, index));
+        }
+        if (block == null && diskCache != null) {
+            block = diskCache.get(objectId, index, blockSize);
+            if (block != null) {
+                putInMemory(objectId, index, block);
+            }
+        }
+        return block;
+    }
+
+    synchronized boolean contains(String objectId, long index) {
+        return blocks.containsKey(new BlockKey(objectId, index));
+    }
+
+    /**
+     * A method that adds a block to the cache and evicts the least recently used
+     * blocks if the cache exceeds its byte budget. The block must not be changed afterwards.
+     *
+     * @param objectId the object identity.
+     * @param index    the block index in the object.
+     * @param block    the block data of the block size, shorter only for the last block
+     *                 of the object.
+     */
+    void put(String objectId, long index, byte[] block) {
+        putInMemory(objectId, index, block);
+        if (diskCache != null) {
+            diskCache.putInBackground(objectId, index, blockSize, block);
+        }
+    }
+
+    private synchronized void putInMemory(String objectId, long index, byte[] block) {
+        if (!isMemoryEnabled()) {
+            return;
+        }
+        if (blocks.putIfAbsent(new BlockKey(objectId, index), block) != null) {
+            return;
+        }
+        size += block.length;
+
+        Iterator<byte[]> eldest = blocks.values().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            size -= eldest.next().length;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    long getHits() {
+        return hits.longValue();
+    }
+
+    long getMisses() {
+        return misses.longValue();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return a short description of the shared cache counters for the performance log.
+     */
+    public static String getSummary() {
+        return "Block cache: " + INSTANCE.getHits() + " hits, "
+                + INSTANCE.getMisses() + " misses, "
+                + INSTANCE.hitBytes.longValue() + " bytes served, "
+                + INSTANCE.evictions.longValue() + " evictions, "
+                + INSTANCE.getSize() + " bytes cached"
+                + (INSTANCE.diskCache == null ? "" : "; disk cache: "
+                + INSTANCE.diskCache.getHits() + " hits, "
+                + INSTANCE.diskCache.getMisses() + " misses, "
+                + INSTANCE.diskCache.getDroppedWrites() + " dropped writes, "
+                + INSTANCE.diskCache.getSize() + " bytes on disk");
+    }
+
+    private static final class BlockKey {
+        private final String objectId;
+        private final long index;
+
+        BlockKey(String objectId, long index) {
+            this.objectId = objectId;
+            this.index = index;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return index == other.index && objectId.equals(other.objectId);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(objectId, index);
+        }
+    }
+}
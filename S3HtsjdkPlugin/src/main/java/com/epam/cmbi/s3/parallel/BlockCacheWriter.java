@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class that cuts the parts consumed by a stream into aligned blocks and adds them
+ * to the BlockCache. Parts are expected in the order of the file; the blocks which
+ * are not fully covered by the consecutive parts are not cached. The last block of
+ * the object ends at the object length and is cached with its shorter size.
+ */
+class BlockCacheWriter {
+
+    private final BlockCache cache;
+    private final String objectId;
+    private final int blockSize;
+    private final long objectLength;
+
+    private byte[] block;
+    private long blockIndex;
+    private int blockFilled;
+    private long expectedPosition = -1;
+
+    BlockCacheWriter(BlockCache cache, String objectId, long objectLength) {
+        this.cache = cache;
+        this.objectId = objectId;
+        this.blockSize = cache.getBlockSize();
+        this.objectLength = objectLength;
+    }
+
+    /**
+     * @param position the part start position in the file.
+     * @param part     the part data, from 0 to the limit.
+     */
+    void write(long position, ByteBuffer part) {
+        if (position != expectedPosition) {
+            block = null;
+        }
+        expectedPosition = position + part.limit();
+
+        ByteBuffer source = part.duplicate();
+        source.position(0);
+        long currentPosition = position;
+        while (source.hasRemaining()) {
+            if (block == null) {
+                int offsetInBlock = (int) (currentPosition % blockSize);
+                if (offsetInBlock != 0 || cache.contains(objectId, currentPosition / blockSize)) {
+                    int skipped = Math.min(source.remaining(), blockSize - offsetInBlock);
+                    source.position(source.position() + skipped);
+                    currentPosition += skipped;
+                    continue;
+                }
+                block = new byte[(int) Math.min(blockSize, objectLength - currentPosition)];
+                blockIndex = currentPosition / blockSize;
+                blockFilled = 0;
+            }
+
+            int copied = Math.min(source.remaining(), block.length - blockFilled);
+            source.get(block, blockFilled, copied);
+            blockFilled += copied;
+            currentPosition += copied;
+            if (blockFilled == block.length) {
+                cache.put(objectId, blockIndex, block);
+                block = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.function.LongSupplier;
+
+import com.epam.cmbi.s3.Configuration;
+
+/**
+ * A limit of the total size of the parts requested but not consumed yet, shared by all
+ * streams. A loader reserves the size of a part before requesting it and returns it
+ * once the part is taken by the consumer or dropped. A part is counted by the capacity
+ * of the buffer leased for it from the PartBufferPool, which is rounded up to a power of two.
+ * Each stream producing parts may take its fair share of the budget only: the budget
+ * divided by the number of such streams, so a stream whose consumer is idle doesn't hold
+ * the budget of the others. When the budget or the share is exhausted the part is shrunk
+ * to the bytes left, down to the min part size, or the loader waits.
+ * A loader without reserved parts never waits, so that every stream keeps going: it gets
+ * a part of the min part size even if the budget is exhausted. So the budget may be exceeded
+ * by one min size part per stream, and by the parts of the hedges, see reserveNow.
+ */
+public final class BufferedPartsBudget {
+
+    private static final BufferedPartsBudget INSTANCE =
+            new BufferedPartsBudget(Configuration.getBufferedPartsSize());
+
+    private final long capacity;
+    private long usedBytes;
+    private int activeStreams;
+    private long shrunkParts;
+    private long waits;
+
+    BufferedPartsBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    static BufferedPartsBudget getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the number of bytes a part of the size takes in the budget,
+     * the capacity of its buffer.
+     */
+    static long chargeOf(long size) {
+        return size == 0 ? 0 : PartBufferPool.sizeClassOf(Math.toIntExact(size));
+    }
+
+    /**
+     * Counts a stream producing parts, which gets its share of the budget.
+     */
+    synchronized void register() {
+        activeStreams++;
+    }
+
+    /**
+     * Stops counting a stream which produces no more parts, the shares of the others grow.
+     */
+    synchronized void unregister() {
+        activeStreams--;
+        notifyAll();
+    }
+
+    /**
+     * Reserves the bytes for a part, waiting until at least the min size is available
+     * within the budget and the share of the stream.
+     * A stream without reserved bytes doesn't wait, it gets the min size over the budget.
+     *
+     * @param size        the wanted part size.
+     * @param minSize     the smallest size the part may be shrunk to.
+     * @param streamBytes the number of bytes the stream has reserved, see chargeOf.
+     * @return the reserved size, from the smaller of the wanted and the min size
+     * to the wanted size.
+     */
+    synchronized int reserve(int size, int minSize, LongSupplier streamBytes)
+            throws InterruptedException {
+        int requiredSize = Math.min(size, minSize);
+        if (mustWait(chargeOf(requiredSize), streamBytes.getAsLong())) {
+            waits++;
+            do {
+                wait();
+            } while (mustWait(chargeOf(requiredSize), streamBytes.getAsLong()));
+        }
+        long available = Math.min(capacity - usedBytes, getStreamShare() - streamBytes.getAsLong());
+        int reservedSize = size;
+        if (chargeOf(size) > available) {
+            //the largest buffer that fits is a power of two
+            reservedSize = (int) Math.max(requiredSize,
+                    available > 0 ? Long.highestOneBit(available) : 0);
+        }
+        if (reservedSize < size) {
+            shrunkParts++;
+        }
+        usedBytes += chargeOf(reservedSize);
+        return reservedSize;
+    }
+
+    private boolean mustWait(long requiredBytes, long streamBytes) {
+        return streamBytes > 0 && (usedBytes + requiredBytes > capacity
+                || streamBytes + requiredBytes > getStreamShare());
+    }
+
+    private long getStreamShare() {
+        return capacity / Math.max(1, activeStreams);
+    }
+
+    /**
+     * Reserves the bytes for a part without waiting, even over the budget, for a request
+     * which replaces a straggling one. The bytes count against the budget of the other parts.
+     */
+    synchronized void reserveNow(long size) {
+        usedBytes += chargeOf(size);
+    }
+
+    /**
+     * @param size the size of the part the bytes were reserved for.
+     */
+    synchronized void release(long size) {
+        usedBytes -= chargeOf(size);
+        notifyAll();
+    }
+
+    /**
+     * @return the total capacity of the buffers of the parts requested
+     * but not consumed yet by all streams.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    synchronized long getShrunkParts() {
+        return shrunkParts;
+    }
+
+    synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return the shared budget usage for the performance log.
+     */
+    public static String getSummary() {
+        return "Buffered parts: " + INSTANCE.getUsedBytes() + " of " + INSTANCE.capacity
+                + " bytes, " + INSTANCE.getShrunkParts() + " parts shrunk, "
+                + INSTANCE.getWaits() + " waits for the budget";
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of file positions, from the start position inclusive to the end position exclusive.
+ */
+public final class ByteRange {
+
+    private final long from;
+    private final long to;
+
+    public ByteRange(long from, long to) {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Incorrect range [" + from + " - " + to + "]");
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public long length() {
+        return to - from;
+    }
+
+    /**
+     * A method that sorts the ranges and merges the overlapping and the adjacent ones.
+     *
+     * @param ranges ranges in any order.
+     * @return the sorted ranges, which don't overlap.
+     */
+    public static List<ByteRange> merge(Collection<ByteRange> ranges) {
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::getFrom));
+
+        List<ByteRange> merged = new ArrayList<>();
+        for (ByteRange range : sorted) {
+            int last = merged.size() - 1;
+            if (last >= 0 && range.from <= merged.get(last).to) {
+                ByteRange previous = merged.get(last);
+                merged.set(last, new ByteRange(previous.from, Math.max(previous.to, range.to)));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    @Override public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ByteRange)) {
+            return false;
+        }
+        ByteRange other = (ByteRange) o;
+        return from == other.from && to == other.to;
+    }
+
+    @Override public int hashCode() {
+        return Long.hashCode(from) * 31 + Long.hashCode(to);
+    }
+
+    @Override public String toString() {
+        return "[" + from + " - " + to + "]";
+    }
+}
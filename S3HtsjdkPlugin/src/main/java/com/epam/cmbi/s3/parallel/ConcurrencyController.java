@@ -0,0 +1,224 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.epam.cmbi.s3.Configuration;
+import htsjdk.samtools.util.Log;
+
+/**
+ * A limit of the part downloads running at the same time, which adapts to the S3 responses
+ * with the additive increase, multiplicative decrease rule. The limit is cut by half on
+ * a throttling response and by a quarter when the time to the first byte gets inflated
+ * against its long-term average; it grows by one while the downloads use up the limit and
+ * the aggregate throughput keeps improving. The limit stays between 1 and the max limit.
+ * The shared controller limits the downloads of all streams of the process, under the max
+ * total connections, and starts from a quarter of it; each stream is also limited to its
+ * number of connections by a controller of its own.
+ * A non-adaptive controller is a plain semaphore of the max limit.
+ */
+public final class ConcurrencyController {
+
+    private static final Log LOG = Log.getInstance(ConcurrencyController.class);
+
+    private static final ConcurrencyController INSTANCE = new ConcurrencyController(
+            Configuration.getMaxTotalConnections(), Configuration.isAdaptiveConcurrency());
+
+    static final double THROTTLING_BACKOFF = 0.5;
+    static final double LATENCY_BACKOFF = 0.75;
+    static final double LATENCY_INFLATION = 2;
+    static final double MIN_THROUGHPUT_IMPROVEMENT = 0.05;
+    static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    static final long BACKOFF_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final int MIN_LATENCY_SAMPLES = 20;
+    static final double INITIAL_LIMIT_SHARE = 0.25;
+    private static final double FAST_SMOOTHING = 0.2;
+    private static final double SLOW_SMOOTHING = 0.02;
+    private static final int MIN_LIMIT = 1;
+
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final LongSupplier nanoClock;
+
+    private double limit;
+    private int inFlight;
+
+    private long windowStart;
+    private long windowBytes;
+    private boolean windowLimited;
+    private double previousThroughput;
+
+    private double fastLatency;
+    private double slowLatency;
+    private long latencySamples;
+
+    private long lastBackoff;
+    private long backoffs;
+
+    /**
+     * @param maxLimit the limit an adaptive controller grows up to.
+     * @param adaptive false for a plain semaphore of the max limit.
+     */
+    ConcurrencyController(int maxLimit, boolean adaptive) {
+        this(maxLimit, adaptive ? Math.max(MIN_LIMIT, (int) (maxLimit * INITIAL_LIMIT_SHARE))
+                : maxLimit, adaptive, System::nanoTime);
+    }
+
+    ConcurrencyController(int maxLimit, int initialLimit, boolean adaptive,
+            LongSupplier nanoClock) {
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.nanoClock = nanoClock;
+        this.limit = initialLimit;
+        this.windowStart = nanoClock.getAsLong();
+        this.lastBackoff = windowStart - BACKOFF_COOLDOWN_NANOS;
+    }
+
+    static ConcurrencyController getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits until the number of running downloads is below the limit and takes a place.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            windowLimited = true;
+            wait();
+        }
+        inFlight++;
+        if (inFlight >= getLimit()) {
+            windowLimited = true;
+        }
+    }
+
+    /**
+     * Takes a place without waiting, even over the limit, for a request which replaces
+     * a straggling one. The place counts against the limit for the other downloads.
+     */
+    synchronized void acquireNow() {
+        inFlight++;
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * A method for a throttling response (503 Slow Down) from S3.
+     */
+    synchronized void onThrottled() {
+        if (adaptive) {
+            backOff(THROTTLING_BACKOFF, "throttling");
+        }
+    }
+
+    /**
+     * A method for a completed part download.
+     *
+     * @param bytes          size of the transferred part.
+     * @param firstByteNanos time from the request to the first bytes of the response.
+     */
+    synchronized void onTransfer(long bytes, long firstByteNanos) {
+        if (!adaptive) {
+            return;
+        }
+        updateLatency(firstByteNanos);
+        if (latencySamples >= MIN_LATENCY_SAMPLES
+                && fastLatency > LATENCY_INFLATION * slowLatency) {
+            backOff(LATENCY_BACKOFF, "latency inflation");
+        }
+
+        long now = nanoClock.getAsLong();
+        windowBytes += bytes;
+        if (now - windowStart >= WINDOW_NANOS) {
+            double throughput = (double) windowBytes / (now - windowStart);
+            //a limit that wasn't used up isn't what holds the throughput back
+            if (windowLimited
+                    && throughput > previousThroughput * (1 + MIN_THROUGHPUT_IMPROVEMENT)
+                    && now - lastBackoff >= BACKOFF_COOLDOWN_NANOS && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1);
+                notifyAll();
+            }
+            previousThroughput = throughput;
+            windowStart = now;
+            windowBytes = 0;
+            windowLimited = inFlight >= getLimit();
+        }
+    }
+
+    private void updateLatency(long firstByteNanos) {
+        if (latencySamples++ == 0) {
+            fastLatency = firstByteNanos;
+            slowLatency = firstByteNanos;
+        } else {
+            fastLatency += FAST_SMOOTHING * (firstByteNanos - fastLatency);
+            slowLatency += SLOW_SMOOTHING * (firstByteNanos - slowLatency);
+        }
+    }
+
+    /**
+     * Cuts the limit, at most once per cooldown period, as a burst of responses
+     * usually reports the same congestion.
+     */
+    private void backOff(double factor, String reason) {
+        long now = nanoClock.getAsLong();
+        if (now - lastBackoff < BACKOFF_COOLDOWN_NANOS) {
+            return;
+        }
+        limit = Math.max(MIN_LIMIT, limit * factor);
+        lastBackoff = now;
+        backoffs++;
+        previousThroughput = 0;
+        LOG.debug("Concurrency limit was reduced to ", getLimit(), " on ", reason);
+    }
+
+    /**
+     * @return the current number of part downloads allowed to run at the same time.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized long getBackoffs() {
+        return backoffs;
+    }
+
+    /**
+     * @return a short description of the shared controller state for the performance log.
+     */
+    public static String getSummary() {
+        return "Concurrency limit: " + INSTANCE.getLimit() + " of " + INSTANCE.maxLimit + ", "
+                + INSTANCE.getInFlight() + " downloads running, "
+                + INSTANCE.getBackoffs() + " backoffs";
+    }
+}
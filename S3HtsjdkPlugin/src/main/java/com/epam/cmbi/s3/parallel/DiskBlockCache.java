@@ -0,0 +1,325 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import htsjdk.samtools.util.Log;
+
+/**
+ * A local disk tier of the BlockCache, which keeps the blocks between runs.
+ * Each block is stored in its own file, written and read through a memory mapping.
+ * The file header holds the object identity, which includes the ETag, and the block size;
+ * a block is only served if both match. The data of the last block of an object may be
+ * shorter than the block size. The least recently used files are deleted when
+ * the total size of the files exceeds the disk quota.
+ * A block file is written to a temporary file first and then moved in place,
+ * so readers never see a partially written block. The streams hand the blocks over to
+ * a background writer with a bounded queue, the blocks are not stored if it falls behind.
+ */
+final class DiskBlockCache {
+
+    private static final Log LOG = Log.getInstance(DiskBlockCache.class);
+
+    private static final int MAGIC = 0x53334243;
+    private static final String BLOCK_FILE_SUFFIX = ".block";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String WRITER_THREAD_NAME = "Disk Block Cache Writer";
+    private static final int WRITE_QUEUE_SIZE = 64;
+
+    private final Path directory;
+    private final long quota;
+    private final Executor writer;
+
+    /**
+     * Block file names with their sizes, in the order of the last access.
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder droppedWrites = new LongAdder();
+
+    /**
+     * @param directory the cache directory, the block files already present in it are reused.
+     * @param quota     max total size of the block files.
+     */
+    DiskBlockCache(Path directory, long quota) throws IOException {
+        this(directory, quota,
+                ExecutorsFactory.getDaemonBoundedExecutor(WRITER_THREAD_NAME, WRITE_QUEUE_SIZE));
+    }
+
+    /**
+     * @param writer the executor which stores the blocks passed to putInBackground.
+     */
+    DiskBlockCache(Path directory, long quota, Executor writer) throws IOException {
+        this.directory = directory;
+        this.quota = quota;
+        this.writer = writer;
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        List<Path> blockFiles = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.endsWith(TEMP_FILE_SUFFIX)) {
+                    Files.deleteIfExists(entry);
+                } else if (name.endsWith(BLOCK_FILE_SUFFIX)) {
+                    blockFiles.add(entry);
+                }
+            }
+        }
+        blockFiles.sort(Comparator.comparing(DiskBlockCache::lastModified));
+        for (Path blockFile : blockFiles) {
+            long fileSize = Files.size(blockFile);
+            files.put(blockFile.getFileName().toString(), fileSize);
+            size += fileSize;
+        }
+        evictFiles();
+        LOG.debug("Disk block cache in ", directory, " holds ", size, " bytes");
+    }
+
+    /**
+     * @param objectId  the object identity.
+     * @param index     the block index in the object.
+     * @param blockSize the expected block size.
+     * @return the block data, which is shorter than the block size for the last block
+     * of an object, or null if the block is not cached or the file doesn't match.
+     */
+    byte[] get(String objectId, long index, int blockSize) {
+        String name = fileName(objectId, index);
+        synchronized (this) {
+            //get, rather than containsKey, marks the file as recently used
+            if (files.get(name) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+
+        Path blockFile = directory.resolve(name);
+        try (FileChannel channel = FileChannel.open(blockFile, StandardOpenOption.READ)) {
+            byte[] block = readBlock(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    objectId, blockSize);
+            if (block != null) {
+                Files.setLastModifiedTime(blockFile,
+                        FileTime.fromMillis(System.currentTimeMillis()));
+                hits.increment();
+                return block;
+            }
+            LOG.warn("Block file ", blockFile, " doesn't match the block, it will be removed");
+            Files.deleteIfExists(blockFile);
+        } catch (NoSuchFileException e) {
+            LOG.debug("Block file ", blockFile, " was removed");
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to read the block file ", blockFile);
+        }
+        remove(name);
+        misses.increment();
+        return null;
+    }
+
+    private static byte[] readBlock(MappedByteBuffer mapping, String objectId, int blockSize) {
+        byte[] expectedId = objectId.getBytes(StandardCharsets.UTF_8);
+        int dataSize = mapping.remaining() - headerSize(expectedId);
+        if (dataSize < 0 || dataSize > blockSize
+                || mapping.getInt() != MAGIC
+                || mapping.getInt() != expectedId.length) {
+            return null;
+        }
+        byte[] storedId = new byte[expectedId.length];
+        mapping.get(storedId);
+        if (!MessageDigest.isEqual(expectedId, storedId) || mapping.getInt() != blockSize) {
+            return null;
+        }
+        byte[] block = new byte[dataSize];
+        mapping.get(block);
+        return block;
+    }
+
+    /**
+     * A method that queues a block to be stored by the background writer, so that
+     * the reading thread doesn't wait for the disk. The block is dropped if the writer
+     * queue is full.
+     *
+     * @param objectId  the object identity.
+     * @param index     the block index in the object.
+     * @param blockSize the block size, the last block of an object may be shorter.
+     * @param block     the block data, which must not be changed afterwards.
+     */
+    void putInBackground(String objectId, long index, int blockSize, byte[] block) {
+        try {
+            writer.execute(() -> put(objectId, index, blockSize, block));
+        } catch (RejectedExecutionException e) {
+            droppedWrites.increment();
+            LOG.debug("Disk block cache writer is behind, block ", index, " of ", objectId,
+                    " is not stored");
+        }
+    }
+
+    /**
+     * A method that stores a block of the block size.
+     *
+     * @param objectId the object identity.
+     * @param index    the block index in the object.
+     * @param block    the block data.
+     */
+    void put(String objectId, long index, byte[] block) {
+        put(objectId, index, block.length, block);
+    }
+
+    /**
+     * A method that stores a block, unless it is cached already.
+     * Failures to write are logged, the block is just not cached then.
+     *
+     * @param objectId  the object identity.
+     * @param index     the block index in the object.
+     * @param blockSize the block size, the last block of an object may be shorter.
+     * @param block     the block data.
+     */
+    void put(String objectId, long index, int blockSize, byte[] block) {
+        String name = fileName(objectId, index);
+        synchronized (this) {
+            if (files.containsKey(name)) {
+                return;
+            }
+        }
+
+        byte[] id = objectId.getBytes(StandardCharsets.UTF_8);
+        long fileSize = headerSize(id) + block.length;
+        Path tempFile = directory.resolve(name + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+                mapping.putInt(MAGIC).putInt(id.length).put(id).putInt(blockSize).put(block);
+            }
+            Files.move(tempFile, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to write the block file ", name);
+            deleteQuietly(tempFile);
+            return;
+        }
+
+        synchronized (this) {
+            Long previousSize = files.put(name, fileSize);
+            size += fileSize - (previousSize == null ? 0 : previousSize);
+            evictFiles();
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long removedSize = files.remove(name);
+        if (removedSize != null) {
+            size -= removedSize;
+        }
+    }
+
+    private synchronized void evictFiles() {
+        Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+        while (size > quota && eldest.hasNext()) {
+            Map.Entry<String, Long> evicted = eldest.next();
+            size -= evicted.getValue();
+            eldest.remove();
+            deleteQuietly(directory.resolve(evicted.getKey()));
+        }
+    }
+
+    private static int headerSize(byte[] id) {
+        return 3 * Integer.BYTES + id.length;
+    }
+
+    private static String fileName(String objectId, long index) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(objectId.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append('-').append(index).append(BLOCK_FILE_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to delete the block file ", file);
+        }
+    }
+
+    long getHits() {
+        return hits.longValue();
+    }
+
+    long getMisses() {
+        return misses.longValue();
+    }
+
+    long getDroppedWrites() {
+        return droppedWrites.longValue();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+}
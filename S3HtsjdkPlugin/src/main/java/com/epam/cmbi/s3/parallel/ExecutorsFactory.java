@@ -24,18 +24,42 @@
 
 package com.epam.cmbi.s3.parallel;
 
-import com.epam.cmbi.s3.Configuration;
-
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.epam.cmbi.s3.Configuration;
+import com.epam.cmbi.s3.Configuration.ExecutionMode;
+import htsjdk.samtools.util.Log;
 
 /**
  * This class contains the plugins's executor services.
  */
 public class ExecutorsFactory {
 
-    private static final int RESERVED_FOR_TASK_PRODUCER = 1;
+    private static final Log LOG = Log.getInstance(ExecutorsFactory.class);
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+    private static final LongAdder createdTasksThreads = new LongAdder();
+    private static volatile boolean tasksExecutorCreated;
+
+    /**
+     * The download executor is shared by all streams of the process and created on first use.
+     */
+    private static class TasksExecutorHolder {
+        private static final ExecutorService INSTANCE =
+                createTasksExecutor(Configuration.getExecutionMode());
+
+        static {
+            tasksExecutorCreated = true;
+        }
+    }
 
     public static ScheduledExecutorService getDaemonScheduledExecutorService(String name) {
         return Executors.newSingleThreadScheduledExecutor(r -> {
@@ -46,9 +70,117 @@ public class ExecutorsFactory {
         });
     }
 
-    static ExecutorService getTasksExecutor() {
-        return Executors.newFixedThreadPool(
-                Configuration.getNumberOfConnections() + RESERVED_FOR_TASK_PRODUCER
-        );
+    /**
+     * A method that creates a single daemon thread executor with a bounded queue.
+     * The thread is stopped when idle; the tasks submitted while the queue is full
+     * are rejected with a RejectedExecutionException.
+     *
+     * @param name      the thread name.
+     * @param queueSize max number of the tasks waiting to be run.
+     * @return a new executor.
+     */
+    static ExecutorService getDaemonBoundedExecutor(String name, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1,
+                IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setName(name);
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the process-wide executor for the part loading tasks and their producers,
+     * also used for the requests made concurrently on a reader open.
+     */
+    public static ExecutorService getTasksExecutor() {
+        return TasksExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * A method that creates an executor for the part loading tasks.
+     * In the platform mode the threads are reused across streams and seeks,
+     * idle ones are stopped after a minute. In the virtual mode every task gets
+     * its own virtual thread; if the runtime doesn't support virtual threads,
+     * the platform mode is used instead.
+     *
+     * @param mode the kind of threads to run the tasks on.
+     * @return a new executor.
+     */
+    static ExecutorService createTasksExecutor(ExecutionMode mode) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            Optional<ExecutorService> virtualThreadsExecutor = createVirtualThreadsExecutor();
+            if (virtualThreadsExecutor.isPresent()) {
+                LOG.info("Part downloads run on virtual threads");
+                return virtualThreadsExecutor.get();
+            }
+            LOG.warn("Virtual threads are not supported by the runtime, "
+                    + "part downloads run on platform threads");
+        }
+        return new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE,
+                IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                countingThreadFactory(r -> {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setDaemon(true);
+                    return t;
+                }));
+    }
+
+    /**
+     * Virtual threads API is called reflectively, since the plugin is built for Java 1.8.
+     */
+    private static Optional<ExecutorService> createVirtualThreadsExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            ThreadFactory virtualThreadFactory = (ThreadFactory) Class
+                    .forName("java.lang.Thread$Builder")
+                    .getMethod("factory")
+                    .invoke(builder);
+            return Optional.of((ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, countingThreadFactory(virtualThreadFactory)));
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Virtual threads are unavailable: ", e);
+            return Optional.empty();
+        }
+    }
+
+    private static ThreadFactory countingThreadFactory(ThreadFactory threadFactory) {
+        return r -> {
+            Thread t = threadFactory.newThread(r);
+            createdTasksThreads.increment();
+            return t;
+        };
+    }
+
+    /**
+     * @return the number of the download threads created by the process.
+     */
+    static long getCreatedTasksThreads() {
+        return createdTasksThreads.longValue();
+    }
+
+    /**
+     * @return a short description of the download threads for the performance log.
+     * The download executor isn't created for it if no stream has used it yet.
+     */
+    public static String getSummary() {
+        if (!tasksExecutorCreated) {
+            return "Download threads: not started";
+        }
+        ExecutorService executor = TasksExecutorHolder.INSTANCE;
+        String summary = "Download threads: " + getCreatedTasksThreads() + " created";
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            summary += ", " + pool.getPoolSize() + " alive, " + pool.getActiveCount() + " active";
+        }
+        return summary;
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.epam.cmbi.s3.Configuration;
+
+/**
+ * An in-process cache of the downloaded index files, shared by all opens.
+ * The indexes are keyed by the object identity (bucket, key and ETag), so a changed
+ * index file is downloaded again. The least recently used indexes are evicted when the
+ * cache exceeds its byte budget. If a disk cache directory is configured, the indexes
+ * are also kept in the disk tier of the BlockCache, so that repeated runs don't download
+ * them; the index files and the blocks share the disk quota.
+ */
+public final class IndexCache {
+
+    /**
+     * The disk cache file index of an index file, which doesn't collide with the blocks.
+     */
+    private static final long INDEX_BLOCK = -1;
+
+    private static final IndexCache INSTANCE = new IndexCache(Configuration.getIndexCacheSize(),
+            BlockCache.getInstance().getDiskCache());
+
+    private final long capacity;
+    private final DiskBlockCache diskCache;
+    private final LinkedHashMap<String, byte[]> indexes = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param diskCache the disk tier of the cache, null to keep the indexes in memory only.
+     */
+    IndexCache(long capacity, DiskBlockCache diskCache) {
+        this.capacity = capacity;
+        this.diskCache = diskCache;
+    }
+
+    public static IndexCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param bucket the index file bucket.
+     * @param key    the index file key.
+     * @param eTag   the index file ETag.
+     * @param length the index file size.
+     * @return the cached index file content, or empty if it has to be downloaded.
+     */
+    public Optional<byte[]> get(String bucket, String key, String eTag, long length) {
+        String objectId = BlockCache.objectId(bucket, key, eTag);
+        synchronized (this) {
+            byte[] index = indexes.get(objectId);
+            if (index != null && index.length == length) {
+                hits.increment();
+                return Optional.of(index);
+            }
+        }
+        if (diskCache != null && length <= Integer.MAX_VALUE) {
+            byte[] index = diskCache.get(objectId, INDEX_BLOCK, (int) length);
+            if (index != null && index.length == length) {
+                diskHits.increment();
+                putInMemory(objectId, index);
+                return Optional.of(index);
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * A method that stores a downloaded index file. The content must not be changed afterwards.
+     */
+    public void put(String bucket, String key, String eTag, byte[] index) {
+        String objectId = BlockCache.objectId(bucket, key, eTag);
+        putInMemory(objectId, index);
+        if (diskCache != null) {
+            diskCache.put(objectId, INDEX_BLOCK, index);
+        }
+    }
+
+    private synchronized void putInMemory(String objectId, byte[] index) {
+        if (index.length > capacity) {
+            return;
+        }
+        byte[] previous = indexes.put(objectId, index);
+        size += index.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> eldest = indexes.entrySet().iterator();
+        while (size > capacity) {
+            size -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    long getHits() {
+        return hits.longValue();
+    }
+
+    long getDiskHits() {
+        return diskHits.longValue();
+    }
+
+    long getMisses() {
+        return misses.longValue();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return a short description of the shared cache counters for the performance log.
+     */
+    public static String getSummary() {
+        return "Index cache: " + INSTANCE.getHits() + " hits, "
+                + INSTANCE.getDiskHits() + " disk hits, "
+                + INSTANCE.getMisses() + " misses, "
+                + INSTANCE.getSize() + " bytes cached";
+    }
+}
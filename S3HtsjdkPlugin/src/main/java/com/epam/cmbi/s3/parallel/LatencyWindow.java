@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.Arrays;
+
+/**
+ * A window of the latest part loading times, which gives their percentiles.
+ */
+class LatencyWindow {
+
+    static final int WINDOW_SIZE = 64;
+    static final int MIN_SAMPLES = 16;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private long count;
+
+    synchronized void record(long nanos) {
+        samples[(int) (count++ % WINDOW_SIZE)] = nanos;
+    }
+
+    /**
+     * @param percentile a percentile from 0 to 100.
+     * @return the percentile of the recorded times in nanoseconds,
+     * or -1 if too few times were recorded.
+     */
+    synchronized long getPercentile(int percentile) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        int size = (int) Math.min(count, WINDOW_SIZE);
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -24,133 +24,798 @@
 
 package com.epam.cmbi.s3.parallel;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.amazonaws.services.s3.AmazonS3URI;
 import com.epam.cmbi.s3.Configuration;
 import com.epam.cmbi.s3.S3InputStreamFactory;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
 
 /**
- * A class for parallel parts downloading. It produces a task for each file part,
+ * A class for parallel parts downloading. It splits the ranges of the file to load into parts
+ * of the sizes picked by the PartSizer,
+ * except for the head window of a loader started at the beginning of the file, which is
+ * split into parts for all connections at once, so that the header doesn't wait for
+ * the part size ramp-up;
+ * produces a task for each part,
  * submits them to a queue, collects the results in a correct order and gives them on request.
+ * The buffer of each part is reserved in the shared BufferedPartsBudget until the part is
+ * taken from the queue, so the parts may be shrunk or wait for the consumers.
+ * While the loader produces parts, it holds its share of the budget only.
+ * The tasks run on the process-wide download executor, the number of tasks loading
+ * at the same time is limited by the number of connections for each loader and by
+ * the shared ConcurrencyController for all loaders of the process.
+ * If the object identity is known, the parts fully covered by the BlockCache are taken
+ * from the cache instead of being requested.
+ * A part that the consumer waits for longer than the hedge percentile of the loading times
+ * of the stream parts of a similar size is requested again, the first of the two loaded
+ * is used. A failed part fails the stream, rather than ending it.
+ * If the BGZF aligned parts are enabled, the parts are given cut at the BGZF block starts:
+ * the bytes after the last whole block of a part are carried over to the next part.
  */
 class ParallelPartsLoader implements Runnable {
 
     private static final Log LOG = Log.getInstance(ParallelPartsLoader.class);
-    public static final int CAPACITY_BUFFER_COEFFICIENT = 3;
-    public static final byte[] EOF = new byte[0];
+    public static final ByteBuffer EOF = ByteBuffer.allocate(0);
 
     private final AtomicBoolean canceledFlag = new AtomicBoolean(false);
+    private volatile boolean loadingCanceled;
+    private volatile boolean tasksInterrupted;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final BufferedPartsBudget budget = BufferedPartsBudget.getInstance();
+    private final AtomicInteger hedgesFired = new AtomicInteger();
+    private final AtomicInteger hedgesWon = new AtomicInteger();
+    /**
+     * The loading times of the parts by the size class, the floor of the size logarithm.
+     */
+    private final ConcurrentMap<Integer, LatencyWindow> partLatencies = new ConcurrentHashMap<>();
+    private RuntimeIOException failure;
 
-    private final BlockingQueue<Future<Optional<byte[]>>> tasksQueue;
+    private static final LongAdder TOTAL_HEDGES_FIRED = new LongAdder();
+    private static final LongAdder TOTAL_HEDGES_WON = new LongAdder();
+
+    private final BlockingQueue<PartFuture> tasksQueue;
     private final ExecutorService threadPool;
+    private final ConcurrencyController connections;
+    private final ConcurrencyController totalConnections;
+    private final Future<?> producer;
     private final AmazonS3URI uri;
-    private final long from;
+    private final List<ByteRange> ranges;
     private final long to;
+    private long fetchedPartStart;
     private final S3InputStreamFactory factory;
+    private final String objectId;
+    private final BlockCache blockCache;
+
+    private final boolean alignToBlocks = Configuration.isBgzfAlignedParts();
+    private boolean blockAlignmentLost;
+    /**
+     * The bytes after the last whole BGZF block of the parts given, null if there are none.
+     */
+    private ByteBuffer carry;
+    private long carryStart;
+    private long fetchedPartEnd;
+    /**
+     * The rest of the part the carry was joined with, null if there is none.
+     */
+    private ByteBuffer pendingPart;
+    private long pendingPartStart;
+    private long pendingPartEnd;
+    /**
+     * The offset of the first block in the next part: the target of a seek
+     * which dropped the parts before it, otherwise 0.
+     */
+    private int firstBlockOffset;
+    /**
+     * The part buffers the given slices are cut from, released instead of the slices.
+     */
+    private final Map<ByteBuffer, ByteBuffer> sliceOwners =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+    private boolean endReached;
 
     ParallelPartsLoader(AmazonS3URI uri, long from, long to, S3InputStreamFactory factory) {
-        this(uri, from, to, factory, new ArrayBlockingQueue<>(
-                CAPACITY_BUFFER_COEFFICIENT * Configuration.getNumberOfConnections()));
+        this(uri, Collections.singletonList(new ByteRange(from, to)), factory, null,
+                BlockCache.getInstance());
+    }
+
+    /**
+     * @param ranges     sorted ranges of the file to load, which don't overlap.
+     * @param objectId   the object identity for the BlockCache, null to load all parts from S3.
+     * @param blockCache the cache to take the parts from.
+     */
+    ParallelPartsLoader(AmazonS3URI uri, List<ByteRange> ranges, S3InputStreamFactory factory,
+            String objectId, BlockCache blockCache) {
+        this(uri, ranges, factory, new LinkedBlockingQueue<>(), objectId, blockCache);
     }
 
     ParallelPartsLoader(AmazonS3URI uri, long from, long to, S3InputStreamFactory factory,
-            BlockingQueue<Future<Optional<byte[]>>> tasksQueue) {
+            BlockingQueue<PartFuture> tasksQueue) {
+        this(uri, Collections.singletonList(new ByteRange(from, to)), factory, tasksQueue, null,
+                BlockCache.getInstance());
+    }
+
+    private ParallelPartsLoader(AmazonS3URI uri, List<ByteRange> ranges,
+            S3InputStreamFactory factory, BlockingQueue<PartFuture> tasksQueue, String objectId,
+            BlockCache blockCache) {
+        this.objectId = objectId;
+        this.blockCache = blockCache;
         this.threadPool = ExecutorsFactory.getTasksExecutor();
-        this.from = from;
-        this.to = to;
+        this.connections = new ConcurrencyController(Configuration.getNumberOfConnections(),
+                false);
+        this.totalConnections = ConcurrencyController.getInstance();
+        this.ranges = ranges;
+        this.to = ranges.get(ranges.size() - 1).getTo();
         this.uri = uri;
         this.factory = factory;
         this.tasksQueue = tasksQueue;
-        threadPool.execute(this);
+        this.producer = threadPool.submit(this);
     }
 
     @Override public void run() {
-        Thread.currentThread().setName("Parallel Parts Loader");
+        Thread thread = Thread.currentThread();
+        String originalName = thread.getName();
+        thread.setName("Parallel Parts Loader");
+        budget.register();
+        try {
+            produce();
+        } finally {
+            budget.unregister();
+            thread.setName(originalName);
+        }
+    }
+
+    private void produce() {
         try {
             produceTasks();
             putEndTasksSignal();
         } catch (InterruptedException e) {
-            LOG.error(e, "Thread was interrupt during the producing of tasks for ", uri.toString());
-            Thread.currentThread().interrupt();
+            if (canceledFlag.get()) {
+                LOG.debug("Producing of tasks was canceled for ", uri.toString());
+            } else {
+                LOG.error(e, "Thread was interrupt during the producing of tasks for ",
+                        uri.toString());
+                emergencyCancelLoading();
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.error(e, "Download executor rejected a task for ", uri.toString());
             emergencyCancelLoading();
         }
+        if (loadingCanceled) {
+            //a part may be put after the queue was cleared by the cancellation,
+            //the producer may clear it first, so the tasks are canceled the same way
+            clearQueue(tasksInterrupted);
+        }
 
         LOG.debug("Exit, all tasks were completed for ", uri.toString());
     }
 
     /**
      * This method returns next part.
+     * The part buffer should be returned with {@link #releasePart(ByteBuffer)} once it is consumed.
      *
-     * @return byte[], part of loaded file.
+     * @return ByteBuffer, part of loaded file.
      */
-    byte[] fetchNextPart() {
+    ByteBuffer fetchNextPart() {
+        if (!alignToBlocks) {
+            return fetchLoadedPart();
+        }
+        while (true) {
+            ByteBuffer part = pendingPart != null ? takePendingPart() : fetchLoadedPart();
+            int blocksStart = firstBlockOffset;
+            firstBlockOffset = 0;
+            if (carry != null) {
+                if (part == EOF) {
+                    //the rest of the data is given as it is, the end is given by the next call
+                    return takeCarry();
+                }
+                part = joinCarry(part);
+            }
+            if (part == EOF || blockAlignmentLost || endsRange(fetchedPartEnd)) {
+                return part;
+            }
+
+            int wholeBlocksLength = BgzfBlocks.wholeBlocksLength(part, blocksStart);
+            if (wholeBlocksLength < 0) {
+                LOG.debug("No BGZF block at ", fetchedPartStart + blocksStart, ", the parts of ",
+                        uri.toString(), " are not aligned to the blocks");
+                blockAlignmentLost = true;
+                return part;
+            }
+            int blocksEnd = blocksStart + wholeBlocksLength;
+            if (blocksEnd < part.limit()) {
+                carry = copy(part, blocksEnd, part.limit());
+                carryStart = fetchedPartStart + blocksEnd;
+                part.limit(blocksEnd);
+            }
+            if (blocksEnd > 0) {
+                return part;
+            }
+            //the part is within one block, it is carried over to the next part as a whole
+            releasePart(part);
+        }
+    }
+
+    /**
+     * @throws RuntimeIOException if the part failed to load, the loading is canceled then
+     *                            and the following calls throw it too.
+     */
+    private ByteBuffer fetchLoadedPart() {
+        if (failure != null) {
+            throw failure;
+        }
+        if (endReached) {
+            return EOF;
+        }
+        PartFuture part = null;
         try {
             LOG.debug("New task was get from queue.");
-            return tasksQueue.take().get().orElse(EOF);
-        } catch (ExecutionException | InterruptedException e) {
-            LOG.error(e, "Unable to restore data stream");
-            return EOF;
+            part = tasksQueue.take();
+            releaseBudget(part);
+            fetchedPartStart = part.getFrom();
+            fetchedPartEnd = part.getTo();
+            if (part.isEndSignal()) {
+                endReached = true;
+                return EOF;
+            }
+            Optional<ByteBuffer> loadedPart = awaitPart(part);
+            if (!loadedPart.isPresent()) {
+                throw fail(new RuntimeIOException("Unable to load the part [" + part.getFrom()
+                        + " - " + part.getTo() + "] of " + uri.toString()));
+            }
+            return loadedPart.get();
+        } catch (ExecutionException e) {
+            throw fail(new RuntimeIOException("Unable to load a part of " + uri.toString(),
+                    e.getCause()));
+        } catch (InterruptedException e) {
+            if (part != null) {
+                cancelPart(part);
+            }
+            Thread.currentThread().interrupt();
+            throw fail(new RuntimeIOException("Interrupted while waiting for a part of "
+                    + uri.toString(), e));
         }
     }
 
-    private void produceTasks() throws InterruptedException {
-        int downlPartSize = Configuration.getMinDownloadPartSize();
-        int count = 0;
-        for (long curPosition = from; curPosition < to; ) {
-            if (canceledFlag.get()) {
-                LOG.debug("Canceled ", uri.toString());
-                break;
+    private RuntimeIOException fail(RuntimeIOException e) {
+        LOG.error(e, "Unable to restore data stream");
+        failure = e;
+        emergencyCancelLoading();
+        return e;
+    }
+
+    private boolean endsRange(long position) {
+        for (ByteRange range : ranges) {
+            if (range.getTo() == position) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * Joins the carry with the head of the part, which completes the block the carry starts.
+     * Only the carry and at most a block of the part are copied: the rest of the part
+     * is left pending and is given by the next call as a slice of the part buffer.
+     *
+     * @return a buffer from the PartBufferPool starting at the carry, which is released.
+     */
+    private ByteBuffer joinCarry(ByteBuffer part) {
+        int headLength = Math.min(part.limit(), BgzfBlocks.MAX_BLOCK_SIZE);
+        ByteBuffer joined = PartBufferPool.getInstance().lease(carry.limit() + headLength);
+        ByteBuffer head = part.duplicate();
+        head.position(0).limit(headLength);
+        carry.position(0);
+        joined.put(carry).put(head).flip();
+
+        int joinedBlocksLength = BgzfBlocks.wholeBlocksLength(joined);
+        int restStart = joinedBlocksLength > carry.limit()
+                ? joinedBlocksLength - carry.limit() : headLength;
+        if (restStart < part.limit()) {
+            joined.limit(carry.limit() + restStart);
+            pendingPart = slice(part, restStart);
+            pendingPartStart = fetchedPartStart + restStart;
+            pendingPartEnd = fetchedPartEnd;
+            fetchedPartEnd = pendingPartStart;
+        } else {
+            releasePart(part);
+        }
+        fetchedPartStart = carryStart;
+        releasePart(carry);
+        carry = null;
+        return joined;
+    }
+
+    private ByteBuffer takeCarry() {
+        ByteBuffer part = carry;
+        carry = null;
+        fetchedPartStart = carryStart;
+        return part;
+    }
+
+    private ByteBuffer takePendingPart() {
+        ByteBuffer part = pendingPart;
+        pendingPart = null;
+        fetchedPartStart = pendingPartStart;
+        fetchedPartEnd = pendingPartEnd;
+        return part;
+    }
+
+    /**
+     * @return the part from the offset on, sharing the part buffer.
+     */
+    private ByteBuffer slice(ByteBuffer part, int from) {
+        ByteBuffer source = part.duplicate();
+        source.position(from);
+        ByteBuffer slice = source.slice();
+        ByteBuffer owner = sliceOwners.remove(part);
+        sliceOwners.put(slice, owner != null ? owner : part);
+        return slice;
+    }
+
+    private static ByteBuffer copy(ByteBuffer part, int from, int to) {
+        ByteBuffer source = part.duplicate();
+        source.position(from).limit(to);
+        ByteBuffer copy = PartBufferPool.getInstance().lease(to - from);
+        copy.put(source).flip();
+        return copy;
+    }
+
+    /**
+     * Waits for the part, hedging it if it takes longer than the hedge percentile
+     * of the stream loading times of the parts of its size class.
+     */
+    private Optional<ByteBuffer> awaitPart(PartFuture part)
+            throws ExecutionException, InterruptedException {
+        int hedgePercentile = Configuration.getHedgePercentile();
+        if (hedgePercentile == 0 || !part.isHedgeable() || part.isDone()) {
+            return part.get();
+        }
+        long hedgeDelay = getPartLatencies(part.getTo() - part.getFrom())
+                .getPercentile(hedgePercentile);
+        if (hedgeDelay < 0) {
+            return part.get();
+        }
+        long remainingDelay = part.getStartTime() + hedgeDelay - System.nanoTime();
+        try {
+            return part.get(Math.max(0, remainingDelay), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return hedge(part);
+        }
+    }
+
+    private LatencyWindow getPartLatencies(long partSize) {
+        return partLatencies.computeIfAbsent(63 - Long.numberOfLeadingZeros(partSize),
+                sizeClass -> new LatencyWindow());
+    }
+
+    /**
+     * Requests the part again, takes the first successfully loaded one and cancels the other.
+     * Only the part the consumer waits for is hedged, so a stream runs at most one hedge
+     * at a time. The hedge doesn't wait for a free connection or for the BufferedPartsBudget,
+     * as it replaces a straggling request, but it counts against the shared limits
+     * of the other requests until it is done. If the wait fails, the hedge is canceled.
+     */
+    private Optional<ByteBuffer> hedge(PartFuture part)
+            throws ExecutionException, InterruptedException {
+        LOG.debug("Hedging part [", part.getFrom(), " - ", part.getTo(), "] for ",
+                uri.toString());
+        long partSize = part.getTo() - part.getFrom();
+        totalConnections.acquireNow();
+        budget.reserveNow(partSize);
+        PartFuture hedge = null;
+        try {
+            hedge = startTask(part.getFrom(), part.getTo(), true);
+            hedgesFired.incrementAndGet();
+            TOTAL_HEDGES_FIRED.increment();
+            requestCount.incrementAndGet();
+
+            CompletableFuture.anyOf(part.getCompletion(), hedge.getCompletion()).get();
+            PartFuture winner = part.isDone() ? part : hedge;
+            PartFuture other = winner == part ? hedge : part;
+            if (!isLoaded(winner)) {
+                return other.get();
+            }
+            //the loser is canceled on its own, the other parts of the stream keep loading
+            cancelPart(other);
+            if (winner == hedge) {
+                hedgesWon.incrementAndGet();
+                TOTAL_HEDGES_WON.increment();
+            }
+            return winner.get();
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+            if (hedge != null) {
+                cancelPart(hedge);
+            }
+            throw e;
+        } finally {
+            budget.release(partSize);
+        }
+    }
+
+    /**
+     * Cancels the loading of the part, or returns its buffer to the pool if it is loaded.
+     */
+    private void cancelPart(PartFuture part) {
+        if (!part.cancel(true)) {
+            releaseLoadedPart(part);
+        }
+    }
+
+    private static boolean isLoaded(PartFuture part) throws InterruptedException {
+        try {
+            return !part.isCancelled() && part.get().isPresent();
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the start position in the file of the part last returned by {@link #fetchNextPart()}.
+     */
+    long getFetchedPartStart() {
+        return fetchedPartStart;
+    }
 
-            long destPosition = Math.min(to, curPosition + downlPartSize);
-            tasksQueue.put(submitTask(curPosition, destPosition));
-            LOG.debug("Submit task with position:" + " " + "[" + curPosition + " - " + destPosition
-                    + "] for ", uri.toString());
-            curPosition = destPosition;
-            count++;
-            if (count == Configuration.getNumberOfConnections()
-                    && downlPartSize < Configuration.getMaxDownloadPartSize()) {
-                downlPartSize += downlPartSize;
-                count = 0;
+    /**
+     * @return the number of parts submitted for loading from S3 so far, hedges included.
+     */
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the buffers of the parts reserved in the BufferedPartsBudget and not taken yet.
+     */
+    long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    int getHedgesFired() {
+        return hedgesFired.get();
+    }
+
+    /**
+     * @return the number of hedges loaded before the parts they duplicate.
+     */
+    int getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    static String getHedgingSummary() {
+        return "Hedged requests: " + TOTAL_HEDGES_FIRED.longValue() + " fired, "
+                + TOTAL_HEDGES_WON.longValue() + " won";
+    }
+
+    private void produceTasks() throws InterruptedException {
+        PartSizer partSizer = new PartSizer();
+        ByteRange firstRange = ranges.get(0);
+        long headEnd = firstRange.getFrom() == 0
+                ? Math.min(firstRange.getTo(), Configuration.getHeadWindowSize()) : 0;
+        int headPartSize = headPartSize(headEnd);
+        if (headEnd > 0) {
+            partSizer.rampUpTo(headPartSize);
+        }
+        for (ByteRange range : ranges) {
+            for (long curPosition = range.getFrom(); curPosition < range.getTo(); ) {
+                if (canceledFlag.get()) {
+                    LOG.debug("Canceled ", uri.toString());
+                    return;
+                }
+
+                long partLimit = curPosition < headEnd
+                        ? Math.min(headEnd - curPosition, headPartSize)
+                        : partSizer.nextPartSize();
+                int partSize = budget.reserve(
+                        (int) Math.min(range.getTo() - curPosition, partLimit),
+                        Configuration.getMinDownloadPartSize(), reservedBytes::get);
+                reservedBytes.addAndGet(BufferedPartsBudget.chargeOf(partSize));
+                long destPosition = curPosition + partSize;
+                try {
+                    Optional<PartFuture> cachedPart = loadFromCache(curPosition, destPosition);
+                    if (cachedPart.isPresent()) {
+                        tasksQueue.put(cachedPart.get());
+                    } else {
+                        tasksQueue.put(submitTask(curPosition, destPosition));
+                        requestCount.incrementAndGet();
+                    }
+                } catch (InterruptedException | RuntimeException e) {
+                    releaseBudget(partSize);
+                    throw e;
+                }
+                LOG.debug("Submit task with position:" + " " + "[" + curPosition + " - "
+                        + destPosition + "] for ", uri.toString());
+                curPosition = destPosition;
             }
         }
     }
 
+    /**
+     * @return the size of the parts to load the head window with all connections at once.
+     */
+    private static int headPartSize(long headEnd) {
+        long partSize = (headEnd + Configuration.getNumberOfConnections() - 1)
+                / Configuration.getNumberOfConnections();
+        return (int) Math.max(Configuration.getMinDownloadPartSize(),
+                Math.min(Configuration.getMaxDownloadPartSize(), partSize));
+    }
+
     private void putEndTasksSignal() throws InterruptedException {
         if (!canceledFlag.get()) {
             //poisoned task, to show that no more tasks shell be presented
-            tasksQueue.put(threadPool.submit(() -> {
-                LOG.debug("future poison");
-                return Optional.empty();
-            }));
+            LOG.debug("future poison");
+            tasksQueue.put(PartFuture.endSignal(to));
         }
     }
 
-    private Future<Optional<byte[]>> submitTask(long currentPosition, long destPosition) {
-        PartReader task = new PartReader(uri, currentPosition, destPosition, canceledFlag, factory);
-        return threadPool.submit(task);
+    /**
+     * Copies the part from the BlockCache if all of its blocks are cached.
+     *
+     * @return a completed part future or empty if the part has to be loaded from S3.
+     */
+    private Optional<PartFuture> loadFromCache(long currentPosition, long destPosition) {
+        if (objectId == null || !blockCache.isEnabled()) {
+            return Optional.empty();
+        }
+        ByteBuffer part = PartBufferPool.getInstance()
+                .lease((int) (destPosition - currentPosition));
+        if (!blockCache.copyRange(objectId, currentPosition, destPosition, part)) {
+            PartBufferPool.getInstance().release(part);
+            return Optional.empty();
+        }
+        LOG.debug("Part [", currentPosition, " - ", destPosition, "] was taken from the cache for ",
+                uri.toString());
+        return Optional.of(new PartFuture(currentPosition, destPosition,
+                CompletableFuture.completedFuture(Optional.of(part))));
+    }
+
+    /**
+     * Submits a part loading task once one of the connections is free.
+     */
+    private PartFuture submitTask(long currentPosition, long destPosition)
+            throws InterruptedException {
+        connections.acquire();
+        try {
+            totalConnections.acquire();
+        } catch (InterruptedException e) {
+            connections.release();
+            throw e;
+        }
+        return startTask(currentPosition, destPosition, false);
+    }
+
+    /**
+     * @param hedge true for a hedge, which holds a place of the shared ConcurrencyController
+     *              only, false for a part holding a connection of the loader as well.
+     */
+    private PartFuture startTask(long currentPosition, long destPosition, boolean hedge) {
+        PartTask task = new PartTask(currentPosition, destPosition, hedge, new AtomicBoolean());
+        try {
+            threadPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.releaseConnection();
+            throw e;
+        }
+        return new PartFuture(currentPosition, destPosition, task, task.startTime,
+                task.completion);
+    }
+
+    /**
+     * This method drops the queued parts that end before the target position without waiting
+     * for them: the loaded ones are returned to the pool, the loading ones are canceled.
+     * Nothing is dropped if the target is not within the queued parts.
+     * With the BGZF aligned parts the blocks of the target part are looked for
+     * from the target on, as the seeks go to the block starts.
+     *
+     * @param target a position in the file.
+     * @return the start position of the next queued part, which contains the target,
+     * or -1 if the target is not within the queued parts.
+     */
+    long skipTo(long target) {
+        if (carry != null && carryStart <= target && target < carryStart + carry.limit()) {
+            return carryStart;
+        }
+        if (pendingPart != null && pendingPartStart <= target && target < pendingPartEnd) {
+            return pendingPartStart;
+        }
+        PartFuture targetPart = null;
+        for (PartFuture part : tasksQueue) {
+            if (!part.isEndSignal() && part.getFrom() <= target && target < part.getTo()) {
+                targetPart = part;
+                break;
+            }
+        }
+        if (targetPart == null) {
+            return -1;
+        }
+        if (targetPart == tasksQueue.peek() && pendingPart == null) {
+            //nothing is dropped, the carry is joined with the target part as usual
+            return carry != null ? carryStart : targetPart.getFrom();
+        }
+        releaseHeldParts();
+
+        while (tasksQueue.peek() != targetPart) {
+            dropPart(tasksQueue.poll());
+        }
+        //the target part starts inside a block, the blocks are walked from the target on
+        blockAlignmentLost = false;
+        firstBlockOffset = (int) (target - targetPart.getFrom());
+        LOG.debug("Skipped to the part [", targetPart.getFrom(), " - ", targetPart.getTo(),
+                "] for ", uri.toString());
+        return targetPart.getFrom();
+    }
+
+    private void dropPart(PartFuture part) {
+        releaseBudget(part);
+        cancelPart(part);
+    }
+
+    private void releaseHeldParts() {
+        if (carry != null) {
+            releasePart(carry);
+            carry = null;
+        }
+        if (pendingPart != null) {
+            releasePart(pendingPart);
+            pendingPart = null;
+        }
+    }
+
+    /**
+     * This method returns a consumed part buffer to the PartBufferPool.
+     *
+     * @param part a part received from {@link #fetchNextPart()}.
+     */
+    void releasePart(ByteBuffer part) {
+        if (part != EOF) {
+            ByteBuffer owner = sliceOwners.remove(part);
+            PartBufferPool.getInstance().release(owner != null ? owner : part);
+        }
     }
 
     /**
      * This method terminates work with the current resource.
-     * Sets canceled flag true, clears queue of tasks and shutdowns the executor.
+     * Sets canceled flag true, stops the tasks producer and clears queue of tasks.
+     * Buffers of already loaded parts are returned to the pool, the running tasks
+     * return theirs when they notice the canceled flag. The shared executor keeps running.
      */
     void cancelLoading() {
+        cancelTasks(false);
+        releaseHeldParts();
+        LOG.debug("Loading was canceled for ", uri.toString());
+    }
+
+    private void cancelTasks(boolean interruptTasks) {
+        if (interruptTasks) {
+            tasksInterrupted = true;
+        }
+        loadingCanceled = true;
         canceledFlag.set(true);
-        tasksQueue.clear();
-        threadPool.shutdown();
-        LOG.debug("Thread pool was shut down for ", uri.toString());
+        //the producer may fail before its future is assigned in the constructor
+        if (producer != null) {
+            producer.cancel(true);
+        }
+        clearQueue(interruptTasks);
+    }
+
+    private void clearQueue(boolean interruptTasks) {
+        List<PartFuture> canceledTasks = new ArrayList<>();
+        tasksQueue.drainTo(canceledTasks);
+        for (PartFuture task : canceledTasks) {
+            releaseBudget(task);
+            if (!task.cancel(interruptTasks)) {
+                releaseLoadedPart(task);
+            }
+        }
+    }
+
+    private void releaseBudget(PartFuture part) {
+        releaseBudget(part.getTo() - part.getFrom());
+    }
+
+    private void releaseBudget(long size) {
+        reservedBytes.addAndGet(-BufferedPartsBudget.chargeOf(size));
+        budget.release(size);
+    }
+
+    private void releaseLoadedPart(PartFuture task) {
+        if (!task.isDone() || task.isCancelled()) {
+            return;
+        }
+        try {
+            task.get().ifPresent(this::releasePart);
+        } catch (ExecutionException | InterruptedException e) {
+            LOG.debug("Canceled task has no loaded part for ", uri.toString());
+        }
     }
 
     private void emergencyCancelLoading() {
-        threadPool.shutdownNow();
+        cancelTasks(true);
+    }
+
+    /**
+     * A part loading task, which records its loading time once the part is loaded.
+     * The connection is released when the task completes, or when it is canceled
+     * before it starts. A canceled task stops loading on its own flag, so canceling
+     * the losing request of a hedge doesn't stop the other parts.
+     */
+    private final class PartTask extends FutureTask<Optional<ByteBuffer>> {
+
+        private final long startTime = System.nanoTime();
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private final AtomicBoolean connectionHeld = new AtomicBoolean(true);
+        private final long size;
+        private final boolean hedge;
+        private final AtomicBoolean taskCanceled;
+
+        PartTask(long from, long to, boolean hedge, AtomicBoolean taskCanceled) {
+            super(new PartReader(uri, from, to,
+                    () -> canceledFlag.get() || taskCanceled.get(), factory));
+            this.size = to - from;
+            this.hedge = hedge;
+            this.taskCanceled = taskCanceled;
+        }
+
+        @Override public void run() {
+            try {
+                super.run();
+            } finally {
+                releaseConnection();
+            }
+        }
+
+        /**
+         * The part loaded after the task is canceled isn't set, its buffer is returned
+         * to the pool here. Otherwise the task is done and its part is taken by the caller.
+         */
+        @Override protected void set(Optional<ByteBuffer> part) {
+            if (part.isPresent()) {
+                getPartLatencies(size).record(System.nanoTime() - startTime);
+            }
+            super.set(part);
+            if (isCancelled()) {
+                part.ifPresent(ParallelPartsLoader.this::releasePart);
+            }
+        }
+
+        @Override protected void done() {
+            if (isCancelled()) {
+                taskCanceled.set(true);
+                releaseConnection();
+            }
+            completion.complete(null);
+        }
+
+        private void releaseConnection() {
+            if (connectionHeld.compareAndSet(true, false)) {
+                totalConnections.release();
+                if (!hedge) {
+                    connections.release();
+                }
+            }
+        }
     }
 }
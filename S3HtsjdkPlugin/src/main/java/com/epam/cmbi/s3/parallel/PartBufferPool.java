@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.epam.cmbi.s3.Configuration;
+
+/**
+ * A pool of buffers for the downloaded file parts, shared by all streams.
+ * Buffers are grouped in size classes of powers of two. A PartReader leases a buffer
+ * for a part and the S3ParallelStream returns it once the part is consumed.
+ * Returned buffers are kept for reuse while their total size fits the pool byte budget,
+ * otherwise they are left to the garbage collector.
+ * The pool allocates either heap or direct buffers, the direct ones keep the parts off-heap.
+ */
+public final class PartBufferPool {
+
+    private static final int MAX_SIZE_CLASS = 1 << 30;
+
+    private static final PartBufferPool INSTANCE =
+            new PartBufferPool(Configuration.getBufferPoolSize(), Configuration.isDirectBuffers());
+
+    private final long capacity;
+    private final boolean direct;
+    private final ConcurrentMap<Integer, Deque<ByteBuffer>> idleBuffers = new ConcurrentHashMap<>();
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    PartBufferPool(long capacity, boolean direct) {
+        this.capacity = capacity;
+        this.direct = direct;
+    }
+
+    static PartBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * A method that leases a buffer for a part of the specified size.
+     *
+     * @param size the number of bytes the part holds.
+     * @return a buffer with position 0 and limit equal to the part size.
+     */
+    ByteBuffer lease(int size) {
+        int sizeClass = sizeClassOf(size);
+        ByteBuffer buffer = pollIdleBuffer(sizeClass);
+        if (buffer == null) {
+            misses.increment();
+            buffer = direct ? ByteBuffer.allocateDirect(sizeClass) : ByteBuffer.allocate(sizeClass);
+        } else {
+            hits.increment();
+        }
+        outstandingBytes.addAndGet(buffer.capacity());
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * A method that returns a leased buffer to the pool.
+     * The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer a buffer received from {@link #lease(int)}.
+     */
+    void release(ByteBuffer buffer) {
+        int bufferCapacity = buffer.capacity();
+        if (bufferCapacity == 0) {
+            return;
+        }
+        outstandingBytes.addAndGet(-bufferCapacity);
+        if (reserveIdleSpace(bufferCapacity)) {
+            idleBuffers.computeIfAbsent(bufferCapacity, k -> new ConcurrentLinkedDeque<>())
+                    .push(buffer);
+        }
+    }
+
+    private ByteBuffer pollIdleBuffer(int sizeClass) {
+        Deque<ByteBuffer> buffers = idleBuffers.get(sizeClass);
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer != null) {
+            idleBytes.addAndGet(-sizeClass);
+        }
+        return buffer;
+    }
+
+    private boolean reserveIdleSpace(int bufferCapacity) {
+        long current;
+        do {
+            current = idleBytes.get();
+            if (current + bufferCapacity > capacity) {
+                return false;
+            }
+        } while (!idleBytes.compareAndSet(current, current + bufferCapacity));
+        return true;
+    }
+
+    /**
+     * @return the capacity of the buffer leased for the part size.
+     */
+    static int sizeClassOf(int size) {
+        if (size <= 1) {
+            return 1;
+        }
+        if (size > MAX_SIZE_CLASS) {
+            return size;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    long getHits() {
+        return hits.longValue();
+    }
+
+    long getMisses() {
+        return misses.longValue();
+    }
+
+    long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * @return a short description of the shared pool counters for the performance log.
+     */
+    public static String getSummary() {
+        return "Buffer pool: " + INSTANCE.getHits() + " hits, "
+                + INSTANCE.getMisses() + " misses, "
+                + INSTANCE.getOutstandingBytes() + " bytes outstanding, "
+                + INSTANCE.getIdleBytes() + " bytes idle";
+    }
+}
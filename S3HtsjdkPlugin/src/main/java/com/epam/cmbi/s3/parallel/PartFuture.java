@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A result of a part loading task together with the range of the file the part covers.
+ * A part being loaded from S3 also has its start time and a signal of its completion,
+ * so that a straggling part can be hedged.
+ */
+class PartFuture implements Future<Optional<ByteBuffer>> {
+
+    private final long from;
+    private final long to;
+    private final Future<Optional<ByteBuffer>> result;
+    private final long startTime;
+    private final CompletableFuture<Void> completion;
+
+    PartFuture(long from, long to, Future<Optional<ByteBuffer>> result) {
+        this(from, to, result, 0, null);
+    }
+
+    /**
+     * @param startTime  the time the loading started at, in nanoseconds.
+     * @param completion a future completed once the result is done or canceled.
+     */
+    PartFuture(long from, long to, Future<Optional<ByteBuffer>> result, long startTime,
+            CompletableFuture<Void> completion) {
+        this.from = from;
+        this.to = to;
+        this.result = result;
+        this.startTime = startTime;
+        this.completion = completion;
+    }
+
+    /**
+     * @param position the end position of the loaded range.
+     * @return a completed future without a part, to show that no more parts will be presented.
+     */
+    static PartFuture endSignal(long position) {
+        return new PartFuture(position, position,
+                CompletableFuture.completedFuture(Optional.empty()));
+    }
+
+    long getFrom() {
+        return from;
+    }
+
+    long getTo() {
+        return to;
+    }
+
+    boolean isEndSignal() {
+        return from == to;
+    }
+
+    /**
+     * @return true if the part is being loaded from S3, so it can be loaded again.
+     */
+    boolean isHedgeable() {
+        return completion != null;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    @Override public boolean cancel(boolean mayInterruptIfRunning) {
+        return result.cancel(mayInterruptIfRunning);
+    }
+
+    @Override public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    @Override public boolean isDone() {
+        return result.isDone();
+    }
+
+    @Override public Optional<ByteBuffer> get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override public Optional<ByteBuffer> get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+}
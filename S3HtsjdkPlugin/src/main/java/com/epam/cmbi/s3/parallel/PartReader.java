@@ -26,10 +26,15 @@ package com.epam.cmbi.s3.parallel;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3URI;
 import com.epam.cmbi.s3.Configuration;
 import com.epam.cmbi.s3.S3InputStreamFactory;
@@ -38,15 +43,22 @@ import htsjdk.samtools.util.RuntimeIOException;
 
 /**
  * A class for loading a specific part of target file.
+ * The part is loaded into a buffer leased from the PartBufferPool.
+ * A broken download is resumed from the last received byte.
  */
-class PartReader implements Callable<Optional<byte[]>> {
+class PartReader implements Callable<Optional<ByteBuffer>> {
 
     private static final Log LOG = Log.getInstance(PartReader.class);
 
-    private static final int CHECK_INTERVAL = 512;
+    private static final int TRANSFER_BLOCK_SIZE = 64 * 1024;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final String SLOW_DOWN = "SlowDown";
+    static final long RETRY_BASE_DELAY = 50;
+    static final long MAX_RETRY_DELAY = 5000;
+    private static final int MAX_BACKOFF_SHIFT = 16;
     public static final int END_BYTE = -1;
 
-    private final AtomicBoolean canceledFlag;
+    private final BooleanSupplier canceled;
     private final AmazonS3URI uri;
     private final long from;
     private final long to;
@@ -54,10 +66,19 @@ class PartReader implements Callable<Optional<byte[]>> {
     private final String threadName;
 
     private final S3InputStreamFactory factory;
+    private final PartBufferPool bufferPool;
 
-    PartReader(AmazonS3URI uri, long from, long to, AtomicBoolean canceledFlag,
+    PartReader(AmazonS3URI uri, long from, long to, BooleanSupplier canceled,
             S3InputStreamFactory factory) {
-        this.canceledFlag = canceledFlag;
+        this(uri, from, to, canceled, factory, PartBufferPool.getInstance());
+    }
+
+    /**
+     * @param canceled a check of the cancellation of this part, made once per transfer block.
+     */
+    PartReader(AmazonS3URI uri, long from, long to, BooleanSupplier canceled,
+            S3InputStreamFactory factory, PartBufferPool bufferPool) {
+        this.canceled = canceled;
         this.uri = uri;
         this.from = from;
         this.to = to;
@@ -65,56 +86,161 @@ class PartReader implements Callable<Optional<byte[]>> {
         this.threadName = "[" + from + " : " + to + "](" + uri.toString() + ")";
 
         this.factory = factory;
+        this.bufferPool = bufferPool;
     }
 
-    @Override public Optional<byte[]> call() throws InterruptedException {
+    @Override public Optional<ByteBuffer> call() throws InterruptedException {
         LOG.debug("Launched ", threadName, "on ", uri.toString());
-        Thread.currentThread().setName(threadName);
-
-        return getByteArray(Configuration.getCustomRetryCount());
+        Thread thread = Thread.currentThread();
+        String originalName = thread.getName();
+        thread.setName(threadName);
+        try {
+            return loadPart();
+        } finally {
+            //the thread is pooled, the next task must not run under this part's name
+            thread.setName(originalName);
+        }
     }
 
-    private Optional<byte[]> getByteArray(int remainingAttempts) throws InterruptedException {
-
-        if (remainingAttempts == 0) {
-            LOG.error("Ran out of connection retries to ", uri.toString(), " ", threadName);
-            return Optional.empty();
+    /**
+     * Loads the part, resuming a broken download from the last received byte.
+     * The retries are delayed with an exponential backoff with jitter
+     * and are limited by the process-wide RetryBudget.
+     */
+    private Optional<ByteBuffer> loadPart() throws InterruptedException {
+        ByteBuffer loadedDataBuffer = bufferPool.lease(Math.toIntExact(to - from));
+        boolean loaded = false;
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    loadRange(from + loadedDataBuffer.position(), loadedDataBuffer);
+                    RetryBudget.getInstance().onSuccess();
+                    loaded = true;
+                    return Optional.of(loadedDataBuffer);
+                } catch (AmazonServiceException e) {
+                    if (!isThrottling(e)) {
+                        throw e;
+                    }
+                    ConcurrencyController.getInstance().onThrottled();
+                    LOG.warn("Throttled ", threadName, e);
+                } catch (IOException e) {
+                    LOG.warn("Reconnected ", threadName, e);
+                }
+
+                if (attempt >= Configuration.getCustomRetryCount()) {
+                    LOG.error("Ran out of connection retries to ", uri.toString(), " ", threadName);
+                    return Optional.empty();
+                }
+                if (!RetryBudget.getInstance().tryRetry()) {
+                    LOG.error("Retry budget is exhausted, no retry to ", uri.toString(), " ",
+                            threadName);
+                    return Optional.empty();
+                }
+                Thread.sleep(getRetryDelay(attempt));
+            }
+        } finally {
+            if (!loaded) {
+                bufferPool.release(loadedDataBuffer);
+            }
         }
+    }
 
-        byte[] loadedDataBuffer;
-        try (InputStream s3DataStream = factory.loadFromTo(uri, from, to)) {
-            loadedDataBuffer = loadDataFromStream(s3DataStream);
-        } catch (RuntimeIOException e) {
-            canceledFlag.set(true);
-            throw e;
-        } catch (IOException e) {
-            LOG.warn("Reconnected ", threadName, e);
-            return getByteArray(remainingAttempts - 1);
+    /**
+     * Loads the range from the position to the end of the part into the buffer,
+     * starting at the current buffer position.
+     */
+    private void loadRange(long position, ByteBuffer loadedDataBuffer)
+            throws IOException, InterruptedException {
+        long requestTime = System.nanoTime();
+        try (InputStream s3DataStream = factory.loadFromTo(uri, position, to)) {
+            long firstByteTime = loadDataFromStream(s3DataStream, loadedDataBuffer);
+            TransferStatistics.getInstance().record(to - position, firstByteTime - requestTime,
+                    System.nanoTime() - requestTime);
+            ConcurrencyController.getInstance().onTransfer(to - position,
+                    firstByteTime - requestTime);
         }
-
-        return Optional.of(loadedDataBuffer);
     }
 
-    private byte[] loadDataFromStream(InputStream s3DataStream)
-            throws IOException, InterruptedException {
-        int bufferSize = Math.toIntExact(to - from);
-        byte[] loadedDataBuffer = new byte[bufferSize];
+    /**
+     * @return a random delay up to the exponentially growing backoff, in milliseconds.
+     */
+    static long getRetryDelay(int attempt) {
+        long backoff = Math.min(MAX_RETRY_DELAY,
+                RETRY_BASE_DELAY << Math.min(attempt - 1, MAX_BACKOFF_SHIFT));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
 
-        for (int dataLoaded = 0; dataLoaded < bufferSize; dataLoaded++) {
-            int byteRead = s3DataStream.read();
+    private static boolean isThrottling(AmazonServiceException e) {
+        return e.getStatusCode() == SERVICE_UNAVAILABLE || SLOW_DOWN.equals(e.getErrorCode());
+    }
 
-            if (byteRead == END_BYTE) {
-                throw new RuntimeIOException("Data stream ends ahead.");
+    /**
+     * A method that fills the part buffer block by block, from its current position.
+     * The canceled flag is checked once per block.
+     * Heap buffers are filled directly through their backing array,
+     * direct buffers are filled with channel reads.
+     *
+     * @return the time of the first bytes received, in nanoseconds.
+     */
+    private long loadDataFromStream(InputStream s3DataStream, ByteBuffer loadedDataBuffer)
+            throws IOException, InterruptedException {
+        long firstByteTime = 0;
+        ReadableByteChannel s3DataChannel =
+                loadedDataBuffer.hasArray() ? null : Channels.newChannel(s3DataStream);
+        int bufferSize = loadedDataBuffer.limit();
+
+        while (loadedDataBuffer.position() < bufferSize) {
+            checkCanceled();
+
+            int blockEnd = Math.min(bufferSize, loadedDataBuffer.position() + TRANSFER_BLOCK_SIZE);
+            while (loadedDataBuffer.position() < blockEnd) {
+                int bytesRead = s3DataChannel == null
+                        ? readToArray(s3DataStream, loadedDataBuffer, blockEnd)
+                        : readToChannelBuffer(s3DataChannel, loadedDataBuffer, blockEnd);
+                if (bytesRead == END_BYTE) {
+                    throw new RuntimeIOException("Data stream ends ahead.");
+                }
+                if (firstByteTime == 0) {
+                    firstByteTime = System.nanoTime();
+                }
             }
+        }
+        checkCanceled();
+        loadedDataBuffer.clear();
+        loadedDataBuffer.limit(bufferSize);
+        return firstByteTime == 0 ? System.nanoTime() : firstByteTime;
+    }
 
-            if (dataLoaded % CHECK_INTERVAL == 0 && canceledFlag.get()) {
-                LOG.debug("Loading canceled on. ", uri.toString(), " ", threadName);
-                throw new InterruptedException("Loading canceled!");
+    private static int readToArray(InputStream s3DataStream, ByteBuffer buffer, int blockEnd)
+            throws IOException {
+        int position = buffer.position();
+        int bytesRead = s3DataStream.read(buffer.array(), buffer.arrayOffset() + position,
+                blockEnd - position);
+        if (bytesRead > 0) {
+            buffer.position(position + bytesRead);
+        }
+        return bytesRead;
+    }
 
-            }
-            loadedDataBuffer[dataLoaded] = (byte) byteRead;
+    private static int readToChannelBuffer(ReadableByteChannel s3DataChannel, ByteBuffer buffer,
+            int blockEnd) throws IOException {
+        int bufferLimit = buffer.limit();
+        buffer.limit(blockEnd);
+        try {
+            return s3DataChannel.read(buffer);
+        } finally {
+            buffer.limit(bufferLimit);
         }
+    }
 
-        return loadedDataBuffer;
+    /**
+     * The loading is canceled either for the whole stream by the canceled flag,
+     * or for this part only by interrupting its thread.
+     */
+    private void checkCanceled() throws InterruptedException {
+        if (canceled.getAsBoolean() || Thread.interrupted()) {
+            LOG.debug("Loading canceled on. ", uri.toString(), " ", threadName);
+            throw new InterruptedException("Loading canceled!");
+        }
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import com.epam.cmbi.s3.Configuration;
+
+/**
+ * A class that picks the part sizes for a loader.
+ * The first parts after the loader start, i.e. after a seek, have the min part size,
+ * so that the first bytes come fast. Once the stream has gone through them, it is
+ * considered sequential and the part size is derived from the measured transfers:
+ * a part should take TRANSFER_TO_LATENCY_RATIO times longer to transfer than to get
+ * its first byte, so that a connection spends most of the time transferring data.
+ * Until the transfers are measured, or if the adaptive sizing is off, the part size is
+ * doubled after each number of connections parts, up to the max part size.
+ * A loader that starts with the parts of the head window continues with the part size
+ * ramped up to the head window parts.
+ */
+class PartSizer {
+
+    static final double TRANSFER_TO_LATENCY_RATIO = 4;
+
+    private final int minPartSize;
+    private final int maxPartSize;
+    private final int partsPerStep;
+    private final boolean adaptive;
+    private final TransferStatistics statistics;
+
+    private int partsCount;
+    private int stepPartsCount;
+    private int stepPartSize;
+
+    PartSizer() {
+        this(Configuration.getMinDownloadPartSize(), Configuration.getMaxDownloadPartSize(),
+                Configuration.getNumberOfConnections(), Configuration.isAdaptivePartSize(),
+                TransferStatistics.getInstance());
+    }
+
+    PartSizer(int minPartSize, int maxPartSize, int partsPerStep, boolean adaptive,
+            TransferStatistics statistics) {
+        this.minPartSize = minPartSize;
+        this.maxPartSize = maxPartSize;
+        this.partsPerStep = partsPerStep;
+        this.adaptive = adaptive;
+        this.statistics = statistics;
+        this.stepPartSize = minPartSize;
+    }
+
+    /**
+     * @return the size of the next part of the loader.
+     */
+    int nextPartSize() {
+        int partSize = stepPartSize;
+        if (adaptive && partsCount >= partsPerStep && statistics.hasEstimates()) {
+            partSize = adaptivePartSize();
+        }
+
+        partsCount++;
+        stepPartsCount++;
+        if (stepPartsCount == partsPerStep && stepPartSize < maxPartSize) {
+            stepPartSize += stepPartSize;
+            stepPartsCount = 0;
+        }
+        return partSize;
+    }
+
+    /**
+     * Makes the next parts continue after the parts of the given size, as if the loader
+     * had ramped up to them already.
+     *
+     * @param partSize the size of the parts loaded before.
+     */
+    void rampUpTo(int partSize) {
+        while (stepPartSize < partSize && stepPartSize < maxPartSize) {
+            stepPartSize += stepPartSize;
+        }
+        partsCount = Math.max(partsCount, partsPerStep);
+        stepPartsCount = 0;
+    }
+
+    /**
+     * @return the part size with the bandwidth-delay product of a connection
+     * taken TRANSFER_TO_LATENCY_RATIO times, within the min and the max part size.
+     */
+    private int adaptivePartSize() {
+        double partSize = TRANSFER_TO_LATENCY_RATIO * statistics.getFirstByteLatencySeconds()
+                * statistics.getBytesPerSecond();
+        return (int) Math.max(minPartSize, Math.min(maxPartSize, partSize));
+    }
+}
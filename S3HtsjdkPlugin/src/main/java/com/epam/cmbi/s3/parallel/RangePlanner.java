@@ -0,0 +1,131 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class that plans the range requests for a set of requested ranges.
+ * The ranges separated by less than the gap threshold are coalesced into one range,
+ * so that a single request fetches them along with the gap between them: for small gaps
+ * the latency and the cost of another request outweigh the wasted bytes.
+ * Large ranges are split into parts by the ParallelPartsLoader, which fetches them
+ * over several connections.
+ */
+public final class RangePlanner {
+
+    private final long gapThreshold;
+
+    /**
+     * @param gapThreshold the ranges separated by fewer bytes than this are coalesced.
+     */
+    public RangePlanner(long gapThreshold) {
+        this.gapThreshold = gapThreshold;
+    }
+
+    /**
+     * @param requested ranges in any order, they may overlap.
+     * @return the plan of the ranges to fetch.
+     */
+    public Plan plan(Collection<ByteRange> requested) {
+        List<ByteRange> requestedRanges = ByteRange.merge(requested);
+        List<ByteRange> fetchRanges = new ArrayList<>();
+        for (ByteRange range : requestedRanges) {
+            int last = fetchRanges.size() - 1;
+            if (last >= 0 && range.getFrom() - fetchRanges.get(last).getTo() < gapThreshold) {
+                fetchRanges.set(last, new ByteRange(fetchRanges.get(last).getFrom(),
+                        range.getTo()));
+            } else {
+                fetchRanges.add(range);
+            }
+        }
+        return new Plan(requested.size(), totalLength(requestedRanges), fetchRanges);
+    }
+
+    private static long totalLength(List<ByteRange> ranges) {
+        long length = 0;
+        for (ByteRange range : ranges) {
+            length += range.length();
+        }
+        return length;
+    }
+
+    /**
+     * Ranges to fetch for the requested ranges, with the counters of the requested
+     * and the fetched data. Every requested range is within one of the fetch ranges.
+     */
+    public static final class Plan {
+        private final int requestedRangesCount;
+        private final long requestedBytes;
+        private final List<ByteRange> fetchRanges;
+        private final long fetchedBytes;
+
+        private Plan(int requestedRangesCount, long requestedBytes, List<ByteRange> fetchRanges) {
+            this.requestedRangesCount = requestedRangesCount;
+            this.requestedBytes = requestedBytes;
+            this.fetchRanges = Collections.unmodifiableList(fetchRanges);
+            this.fetchedBytes = totalLength(fetchRanges);
+        }
+
+        /**
+         * @return sorted ranges to fetch, which don't overlap.
+         */
+        public List<ByteRange> getFetchRanges() {
+            return fetchRanges;
+        }
+
+        public int getRequestedRangesCount() {
+            return requestedRangesCount;
+        }
+
+        /**
+         * @return the number of bytes within the requested ranges, overlaps are counted once.
+         */
+        public long getRequestedBytes() {
+            return requestedBytes;
+        }
+
+        public long getFetchedBytes() {
+            return fetchedBytes;
+        }
+
+        /**
+         * @return the share of the fetched bytes that are in the gaps between
+         * the requested ranges.
+         */
+        public double getWastedBytesRatio() {
+            return fetchedBytes == 0 ? 0 : (double) (fetchedBytes - requestedBytes) / fetchedBytes;
+        }
+
+        @Override public String toString() {
+            return requestedRangesCount + " ranges requested, " + fetchRanges.size()
+                    + " ranges to fetch, " + requestedBytes + " bytes requested, "
+                    + fetchedBytes + " bytes to fetch";
+        }
+    }
+}
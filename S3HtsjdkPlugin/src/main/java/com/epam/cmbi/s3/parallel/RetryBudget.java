@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import com.epam.cmbi.s3.Configuration;
+
+/**
+ * A process-wide limit of the part download retries, so that an outage doesn't multiply
+ * the load on S3. Each retry takes a token, each successful download gives back
+ * a tenth of a token, up to the configured number of tokens. So in the long run retries
+ * make at most a tenth of the requests, while short bursts of errors are retried in full.
+ */
+public final class RetryBudget {
+
+    private static final RetryBudget INSTANCE = new RetryBudget(Configuration.getRetryBudget());
+
+    //the tokens are counted in tenths
+    private static final int RETRY_COST = 10;
+    private static final int SUCCESS_DEPOSIT = 1;
+
+    private final long maxTokens;
+    private long tokens;
+    private long retries;
+    private long deniedRetries;
+
+    RetryBudget(int maxTokens) {
+        this.maxTokens = (long) maxTokens * RETRY_COST;
+        this.tokens = this.maxTokens;
+    }
+
+    static RetryBudget getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized void onSuccess() {
+        tokens = Math.min(maxTokens, tokens + SUCCESS_DEPOSIT);
+    }
+
+    /**
+     * @return true if a retry is allowed, its token is taken then.
+     */
+    synchronized boolean tryRetry() {
+        if (tokens < RETRY_COST) {
+            deniedRetries++;
+            return false;
+        }
+        tokens -= RETRY_COST;
+        retries++;
+        return true;
+    }
+
+    synchronized long getRetries() {
+        return retries;
+    }
+
+    synchronized long getDeniedRetries() {
+        return deniedRetries;
+    }
+
+    /**
+     * @return the numbers of retries made and denied by the shared budget for the performance log.
+     */
+    public static String getSummary() {
+        return "Retries: " + INSTANCE.getRetries() + " made, "
+                + INSTANCE.getDeniedRetries() + " denied by the retry budget";
+    }
+}
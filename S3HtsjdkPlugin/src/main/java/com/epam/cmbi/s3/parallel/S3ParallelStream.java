@@ -25,14 +25,22 @@
 package com.epam.cmbi.s3.parallel;
 
 import com.amazonaws.services.s3.AmazonS3URI;
+import com.epam.cmbi.s3.Configuration;
 import com.epam.cmbi.s3.S3InputStreamFactory;
 import htsjdk.samtools.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A custom Stream for parallel file reading.
+ * The stream keeps a window of the recently consumed parts together with the parts queued
+ * by the loader, so that seeks landing inside the window are served without new requests.
+ * If the object ETag is given, the consumed parts are also added to the shared BlockCache.
  */
 public class S3ParallelStream extends InputStream {
 
@@ -40,45 +48,384 @@ public class S3ParallelStream extends InputStream {
     private final Log log = Log.getInstance(S3ParallelStream.class);
 
     private final ParallelPartsLoader taskProducer;
+    private final long retainedPartsSize;
+    private final BlockCacheWriter cacheWriter;
 
-    private volatile byte[] currentDataChunck;
-    private volatile int chunckIndex;
+    /**
+     * Consumed parts in the order of the file, the current part is one of them.
+     */
+    private final List<WindowPart> window = new ArrayList<>();
+    private int currentIndex = -1;
+    private ByteBuffer currentPart;
+    private long currentPartStart;
+
+    /**
+     * End position of the last part given by the loader.
+     */
+    private long loaderPosition;
+    private boolean loaderExhausted;
 
     public S3ParallelStream(AmazonS3URI uri,
                             long from,
                             long to,
                             S3InputStreamFactory factory) {
+        this(uri, from, to, factory, null, to);
+    }
+
+    /**
+     * @param eTag         the object ETag to share the loaded blocks with other streams
+     *                     through the BlockCache, null to load all data from S3.
+     * @param objectLength the object length, the last block of the object is shorter
+     *                     than the block size and is cached only up to this length.
+     */
+    public S3ParallelStream(AmazonS3URI uri,
+                            long from,
+                            long to,
+                            S3InputStreamFactory factory,
+                            String eTag,
+                            long objectLength) {
+        this(uri, Collections.singletonList(new ByteRange(from, to)), factory, eTag,
+                objectLength);
+    }
+
+    /**
+     * Creates a stream that loads only the specified ranges of the file. The stream starts
+     * at the first range; a read reaching the end of a range stops there, as if it was
+     * the end of the stream, while seeks may move the stream to any of the ranges.
+     *
+     * @param ranges       sorted ranges of the file, which don't overlap.
+     * @param eTag         the object ETag to share the loaded blocks with other streams
+     *                     through the BlockCache, null to load all data from S3.
+     * @param objectLength the object length, the last block of the object is shorter
+     *                     than the block size and is cached only up to this length.
+     */
+    public S3ParallelStream(AmazonS3URI uri,
+                            List<ByteRange> ranges,
+                            S3InputStreamFactory factory,
+                            String eTag,
+                            long objectLength) {
+        this(uri, ranges, factory, eTag, objectLength, BlockCache.getInstance());
+    }
 
-        taskProducer = new ParallelPartsLoader(uri, from, to, factory);
-        currentDataChunck = new byte[0];
+    S3ParallelStream(AmazonS3URI uri,
+                     long from,
+                     long to,
+                     S3InputStreamFactory factory,
+                     String eTag,
+                     long objectLength,
+                     BlockCache blockCache) {
+        this(uri, Collections.singletonList(new ByteRange(from, to)), factory, eTag,
+                objectLength, blockCache);
+    }
+
+    private S3ParallelStream(AmazonS3URI uri,
+                             List<ByteRange> ranges,
+                             S3InputStreamFactory factory,
+                             String eTag,
+                             long objectLength,
+                             BlockCache blockCache) {
+
+        String objectId = null;
+        if (eTag != null && blockCache.isEnabled()) {
+            objectId = BlockCache.objectId(uri.getBucket(), uri.getKey(), eTag);
+            cacheWriter = new BlockCacheWriter(blockCache, objectId, objectLength);
+        } else {
+            cacheWriter = null;
+        }
+        taskProducer = new ParallelPartsLoader(uri, ranges, factory, objectId, blockCache);
+        retainedPartsSize = Configuration.getRetainedPartsSize();
+        currentPart = ByteBuffer.allocate(0);
+        currentPartStart = ranges.get(0).getFrom();
+        loaderPosition = currentPartStart;
+    }
+
+    /**
+     * @return the position in the file of the next byte to be read.
+     */
+    public long position() {
+        return currentPartStart + currentPart.position();
+    }
+
+    /**
+     * A method that moves the stream to the target position if it is inside the window:
+     * within the retained parts or within the parts queued by the loader.
+     * The queued parts before the target are dropped, while the retained ones are kept;
+     * the reads from them stop where the dropped parts were.
+     *
+     * @param targetPosition target position in file.
+     * @return false if the target position is out of the window, the stream isn't moved then.
+     */
+    public boolean seek(long targetPosition) throws IOException {
+        if (targetPosition == position()) {
+            return true;
+        }
+        for (int i = 0; i < window.size(); i++) {
+            WindowPart part = window.get(i);
+            if (part.contains(targetPosition)) {
+                moveTo(i);
+                currentPart.position((int) (targetPosition - part.start));
+                return true;
+            }
+        }
+        if (targetPosition == loaderPosition) {
+            moveToLoaderPosition();
+            return true;
+        }
+        if (loaderExhausted || targetPosition < loaderPosition) {
+            return false;
+        }
+
+        long nextPartStart = taskProducer.skipTo(targetPosition);
+        if (nextPartStart < 0) {
+            return false;
+        }
+        log.debug("Seek inside the loaded window to ", targetPosition);
+        loaderPosition = nextPartStart;
+        moveToLoaderPosition();
+        long distance = targetPosition - position();
+        return skip(distance) == distance;
     }
 
     @Override
     public int read() throws IOException {
-       if (chunckEndReached()) {
-           currentDataChunck = taskProducer.fetchNextPart();
-           chunckIndex = 0;
-       }
-        return getNextByte();
+        if (!nextPartAvailable()) {
+            return EOF_BYTE;
+        }
+        return currentPart.get() & (0xff);
     }
 
-    private int getNextByte() throws IOException {
-        if (currentDataChunck == ParallelPartsLoader.EOF) {
-            close();
-            return EOF_BYTE;
+    /**
+     * A method that copies data directly out of the loaded parts.
+     * If the current part ends before the requested length is read,
+     * the copying continues with the following parts within the same call.
+     *
+     * @param buffer the buffer into which the data is read.
+     * @param offset the start offset in the buffer.
+     * @param length the maximum number of bytes to read.
+     * @return the total number of bytes read, or -1 if the end of the stream has been reached.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+
+        int totalRead = 0;
+        while (totalRead < length && nextPartAvailable()) {
+            int bytesToCopy = Math.min(length - totalRead, currentPart.remaining());
+            currentPart.get(buffer, offset + totalRead, bytesToCopy);
+            totalRead += bytesToCopy;
+        }
+        return totalRead == 0 ? EOF_BYTE : totalRead;
+    }
+
+    /**
+     * A method that copies data out of the loaded parts into the destination buffer
+     * without an intermediate heap array. Like {@link #read(byte[], int, int)} it
+     * continues with the following parts until the destination buffer is full.
+     *
+     * @param destination the buffer into which the data is read.
+     * @return the total number of bytes read, or -1 if the end of the stream has been reached.
+     */
+    public int read(ByteBuffer destination) throws IOException {
+        if (!destination.hasRemaining()) {
+            return 0;
+        }
+
+        int totalRead = 0;
+        while (destination.hasRemaining() && nextPartAvailable()) {
+            int bytesToCopy = Math.min(destination.remaining(), currentPart.remaining());
+            ByteBuffer source = currentPart.duplicate();
+            source.limit(source.position() + bytesToCopy);
+            destination.put(source);
+            currentPart.position(source.position());
+            totalRead += bytesToCopy;
+        }
+        return totalRead == 0 ? EOF_BYTE : totalRead;
+    }
+
+    /**
+     * A method that skips data by moving through the loaded parts without copying them.
+     *
+     * @param n the number of bytes to be skipped.
+     * @return the actual number of bytes skipped.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long totalSkipped = 0;
+        while (totalSkipped < n && nextPartAvailable()) {
+            int bytesToSkip = (int) Math.min(n - totalSkipped, currentPart.remaining());
+            currentPart.position(currentPart.position() + bytesToSkip);
+            totalSkipped += bytesToSkip;
         }
-        int nextByte = currentDataChunck[chunckIndex] & (0xff);
-        chunckIndex++;
-        return nextByte;
+        return totalSkipped;
+    }
+
+    /**
+     * @return the number of range requests made by the stream so far.
+     */
+    public int getRequestCount() {
+        return taskProducer.getRequestCount();
+    }
+
+    /**
+     * @return the number of parts requested again as they were loading too long.
+     */
+    public int getHedgesFired() {
+        return taskProducer.getHedgesFired();
     }
 
-    private boolean chunckEndReached() {
-        return currentDataChunck.length == chunckIndex;
+    /**
+     * @return the number of hedges loaded before the parts they duplicate.
+     */
+    public int getHedgesWon() {
+        return taskProducer.getHedgesWon();
+    }
+
+    /**
+     * @return the numbers of hedges fired and won by all streams, for the performance log.
+     */
+    public static String getHedgingSummary() {
+        return ParallelPartsLoader.getHedgingSummary();
+    }
+
+    @Override
+    public int available() throws IOException {
+        return currentPart.remaining();
+    }
+
+    /**
+     * Moves to the next part if the current one is fully read: to the next retained part
+     * after a backward seek, otherwise to the next part from the loader.
+     * The stream doesn't move to a part that starts after a gap between the loaded ranges
+     * or after the parts dropped by a seek.
+     *
+     * @return false if the end of the stream or of a loaded range has been reached.
+     */
+    private boolean nextPartAvailable() throws IOException {
+        if (currentPart.hasRemaining()) {
+            return true;
+        }
+        long currentPartEnd = currentPartStart + currentPart.limit();
+        if (currentIndex + 1 < window.size()) {
+            if (window.get(currentIndex + 1).start != currentPartEnd) {
+                return false;
+            }
+            moveTo(currentIndex + 1);
+            currentPart.position(0);
+            return true;
+        }
+        if (loaderExhausted) {
+            return false;
+        }
+
+        ByteBuffer part = taskProducer.fetchNextPart();
+        if (part == ParallelPartsLoader.EOF) {
+            loaderExhausted = true;
+            return false;
+        }
+        long partStart = taskProducer.getFetchedPartStart();
+        if (cacheWriter != null) {
+            cacheWriter.write(partStart, part);
+        }
+        window.add(new WindowPart(partStart, part));
+        loaderPosition = partStart + part.limit();
+        if (partStart != currentPartEnd) {
+            return false;
+        }
+        moveTo(window.size() - 1);
+        evictRetainedParts();
+        return true;
+    }
+
+    /**
+     * Moves to the next part from the loader: to the end of the last retained part,
+     * or past it if the parts between them were dropped by a seek.
+     */
+    private void moveToLoaderPosition() {
+        WindowPart lastPart = window.isEmpty() ? null : window.get(window.size() - 1);
+        if (lastPart != null && lastPart.start + lastPart.data.limit() == loaderPosition) {
+            moveTo(window.size() - 1);
+            currentPart.position(currentPart.limit());
+        } else {
+            currentIndex = window.size() - 1;
+            currentPart = ByteBuffer.allocate(0);
+            currentPartStart = loaderPosition;
+        }
+    }
+
+    /**
+     * @param position a position in the file.
+     * @return the start of the first part after the position that is loaded or queued
+     * by the loader, or -1 if there is none. The parts before it and after the position
+     * were dropped by a seek or were not requested.
+     */
+    public long getLoadedPositionAfter(long position) {
+        for (WindowPart part : window) {
+            if (part.start > position) {
+                return part.start;
+            }
+        }
+        return !loaderExhausted && loaderPosition > position ? loaderPosition : -1;
+    }
+
+    private void moveTo(int index) {
+        currentIndex = index;
+        WindowPart part = window.get(index);
+        currentPart = part.data;
+        currentPartStart = part.start;
+    }
+
+    /**
+     * Returns the oldest consumed parts to the buffer pool, while the parts before
+     * the current one take more than the retained parts size.
+     */
+    private void evictRetainedParts() {
+        long retainedSize = 0;
+        for (int i = 0; i < currentIndex; i++) {
+            retainedSize += window.get(i).data.limit();
+        }
+        while (currentIndex > 0 && retainedSize > retainedPartsSize) {
+            WindowPart evicted = window.remove(0);
+            retainedSize -= evicted.data.limit();
+            taskProducer.releasePart(evicted.data);
+            currentIndex--;
+        }
+    }
+
+    private void releaseWindow() {
+        window.forEach(part -> taskProducer.releasePart(part.data));
+        window.clear();
+        currentIndex = -1;
     }
 
     @Override
     public void close() throws IOException {
+        currentPartStart = position();
+        currentPart = ByteBuffer.allocate(0);
+        releaseWindow();
+        loaderExhausted = true;
         taskProducer.cancelLoading();
         log.debug("Loading is stopped.");
     }
+
+    /**
+     * A consumed part together with its start position in the file.
+     */
+    private static final class WindowPart {
+        private final long start;
+        private final ByteBuffer data;
+
+        WindowPart(long start, ByteBuffer data) {
+            this.start = start;
+            this.data = data;
+        }
+
+        boolean contains(long position) {
+            return position >= start && position < start + data.limit();
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide estimates of the S3 range request performance: the time to the first byte
+ * of a response and the throughput of a single connection once the data flows.
+ * The estimates are exponentially weighted moving averages of the part transfers.
+ */
+final class TransferStatistics {
+
+    private static final TransferStatistics INSTANCE = new TransferStatistics();
+
+    private static final double SMOOTHING_FACTOR = 0.2;
+    private static final double NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * Shorter transfers, when the whole part comes with the first bytes,
+     * say nothing about the throughput.
+     */
+    private static final long MIN_TRANSFER_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private double firstByteLatencyNanos;
+    private double bytesPerSecond;
+    private long latencySamples;
+    private long throughputSamples;
+
+    TransferStatistics() {
+        //no operations
+    }
+
+    static TransferStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param bytes          size of the transferred part.
+     * @param firstByteNanos time from the request to the first bytes of the response.
+     * @param totalNanos     time from the request to the last byte of the response.
+     */
+    synchronized void record(long bytes, long firstByteNanos, long totalNanos) {
+        firstByteLatencyNanos = smooth(firstByteLatencyNanos, firstByteNanos, latencySamples++);
+
+        long transferNanos = totalNanos - firstByteNanos;
+        if (transferNanos >= MIN_TRANSFER_NANOS) {
+            double throughput = bytes * NANOS_IN_SECOND / transferNanos;
+            bytesPerSecond = smooth(bytesPerSecond, throughput, throughputSamples++);
+        }
+    }
+
+    private static double smooth(double average, double sample, long previousSamples) {
+        return previousSamples == 0
+                ? sample
+                : average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    /**
+     * @return true if both the latency and the throughput were measured.
+     */
+    synchronized boolean hasEstimates() {
+        return latencySamples > 0 && throughputSamples > 0;
+    }
+
+    synchronized double getFirstByteLatencySeconds() {
+        return firstByteLatencyNanos / NANOS_IN_SECOND;
+    }
+
+    synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
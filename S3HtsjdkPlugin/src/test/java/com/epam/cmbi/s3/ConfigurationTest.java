@@ -30,6 +30,7 @@ import org.junit.Test;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -134,6 +135,81 @@ public class ConfigurationTest {
         Configuration.init();
     }
 
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenNegativeBufferPoolSizeIsSet() {
+        System.setProperty(Configuration.BUFFER_POOL_SIZE_PARAMETER, "-1");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenNegativeDiskCacheSizeIsSet() {
+        System.setProperty(Configuration.DISK_CACHE_SIZE_PARAMETER, "-1");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenHedgePercentileIsOutOfRange() {
+        System.setProperty(Configuration.HEDGE_PERCENTILE_PARAMETER, "101");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenNegativeRetryBudgetIsSet() {
+        System.setProperty(Configuration.RETRY_BUDGET_PARAMETER, "-1");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenZeroBufferedPartsSizeIsSet() {
+        System.setProperty(Configuration.BUFFERED_PARTS_SIZE_PARAMETER, "0");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenNegativeMetadataCacheTtlIsSet() {
+        System.setProperty(Configuration.METADATA_CACHE_TTL_PARAMETER, "-1");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenNegativeHeadWindowSizeIsSet() {
+        System.setProperty(Configuration.HEAD_WINDOW_SIZE_PARAMETER, "-1");
+        Configuration.init();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenZeroMaxTotalConnectionsIsSet() {
+        System.setProperty(Configuration.MAX_TOTAL_CONNECTIONS_PARAMETER, "0");
+        Configuration.init();
+    }
+
+    @Test
+    public void testConfigurationShouldReturnSetDiskCacheDirectory() {
+        System.setProperty(Configuration.DISK_CACHE_DIR_PARAMETER, "/tmp/s3cache");
+        Configuration.init();
+        assertEquals(Paths.get("/tmp/s3cache"),
+                Configuration.getDiskCacheDirectory().get());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenDirectBuffersIsNotABoolean() {
+        System.setProperty(Configuration.DIRECT_BUFFERS_PARAMETER, "yes");
+        Configuration.init();
+    }
+
+    @Test
+    public void testConfigurationShouldReturnSetExecutionMode() {
+        System.setProperty(Configuration.EXECUTION_MODE_PARAMETER, "virtual");
+        Configuration.init();
+        assertEquals(Configuration.ExecutionMode.VIRTUAL, Configuration.getExecutionMode());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testConfigurationShouldThrowExceptionWhenExecutionModeIsUnknown() {
+        System.setProperty(Configuration.EXECUTION_MODE_PARAMETER, "green");
+        Configuration.init();
+    }
+
     @After
     public void resetConfiguration() {
        Configuration.resetToDefault();
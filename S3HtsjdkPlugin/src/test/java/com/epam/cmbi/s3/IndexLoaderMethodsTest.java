@@ -24,7 +24,11 @@
 
 package com.epam.cmbi.s3;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import htsjdk.samtools.seekablestream.SeekableStream;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -34,6 +38,12 @@ import org.mockito.Mockito;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -82,6 +92,123 @@ public class IndexLoaderMethodsTest {
         assertFalse(loader.nearbyIndexURI(new AmazonS3URI(SMALL_BAM)).isPresent());
     }
 
+    @Test
+    public void nearbyIndexNamesShouldBeProbedConcurrently() {
+        CountDownLatch probes = new CountDownLatch(2);
+        S3Client client = Mockito.mock(S3Client.class);
+        Mockito.when(client.isFileExisting(Mockito.any(AmazonS3URI.class))).then(invocation -> {
+            probes.countDown();
+            //each probe waits for the other one, so it only succeeds if they overlap
+            return probes.await(5, TimeUnit.SECONDS)
+                    && ((AmazonS3URI) invocation.getArguments()[0]).getKey().endsWith(".bai");
+        });
+        IndexLoader concurrentLoader = new IndexLoader(client);
+        assertEquals("other.bam.bai",
+                concurrentLoader.nearbyIndexURI(new AmazonS3URI(OTHER_BAM)).get().getKey());
+    }
+
+    @Test
+    public void repeatedLoadOfIndexShouldBeServedFromCache() throws IOException {
+        Configuration.resetToDefault();
+        final byte[] index = {1, 2, 3, 4, 5};
+        S3Client client = mockIsFileExisting("other.bam.bai");
+        Mockito.when(client.getFileSize(Mockito.any(AmazonS3URI.class)))
+                .thenReturn((long) index.length);
+        //the shared cache may hold indexes of other tests
+        String eTag = "etag" + System.nanoTime();
+        Mockito.when(client.getETag(Mockito.any(AmazonS3URI.class)))
+                .thenReturn(eTag, eTag, eTag + "changed");
+        AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        Mockito.when(client.getAws()).thenReturn(aws);
+        Mockito.when(aws.getObject(Mockito.any(GetObjectRequest.class))).then(invocation -> {
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(index));
+            return object;
+        });
+        IndexLoader cachingLoader = new IndexLoader(client);
+
+        for (int i = 0; i < 2; i++) {
+            SeekableStream stream = cachingLoader.loadIndex(new AmazonS3URI(OTHER_BAM)).get();
+            assertEquals(index.length, stream.length());
+            assertEquals(index[0], stream.read());
+        }
+        Mockito.verify(aws, Mockito.times(1)).getObject(Mockito.any(GetObjectRequest.class));
+
+        cachingLoader.loadIndex(new AmazonS3URI(OTHER_BAM));
+        Mockito.verify(aws, Mockito.times(2)).getObject(Mockito.any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void lazyIndexShouldBeDownloadedOnFirstRead() throws IOException {
+        final byte[] index = {1, 2, 3, 4, 5};
+        S3Client client = mockIsFileExisting("other.bam.bai");
+        Mockito.when(client.getFileSize(Mockito.any(AmazonS3URI.class)))
+                .thenReturn((long) index.length);
+        Mockito.when(client.getETag(Mockito.any(AmazonS3URI.class)))
+                .thenReturn("etag" + System.nanoTime());
+        AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        Mockito.when(client.getAws()).thenReturn(aws);
+        Mockito.when(aws.getObject(Mockito.any(GetObjectRequest.class))).then(invocation -> {
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(index));
+            return object;
+        });
+
+        SeekableStream stream = new IndexLoader(client)
+                .lazyIndex(new AmazonS3URI(OTHER_BAM)).get();
+        assertTrue(stream.getSource().endsWith("other.bam.bai"));
+        Mockito.verify(aws, Mockito.never()).getObject(Mockito.any(GetObjectRequest.class));
+
+        assertEquals(index[0], stream.read());
+        assertEquals(index.length, stream.length());
+        Mockito.verify(aws, Mockito.times(1)).getObject(Mockito.any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void lazyIndexShouldNotBeReturnedWithoutIndexFile() {
+        S3Client client = mockIsFileExisting("small.bam");
+        assertFalse(new IndexLoader(client).lazyIndex(new AmazonS3URI(SMALL_BAM)).isPresent());
+    }
+
+    @Test
+    public void largeIndexShouldBeLoadedInParallelParts() throws IOException {
+        final int maxPartSize = 100;
+        System.setProperty(Configuration.MAX_CHUNK_SIZE_PARAMETER, Integer.toString(maxPartSize));
+        System.setProperty(Configuration.MIN_CHUNK_SIZE_PARAMETER, Integer.toString(maxPartSize));
+        Configuration.init();
+        final byte[] index = new byte[10 * maxPartSize];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = (byte) i;
+        }
+        S3Client client = mockIsFileExisting("other.bam.bai");
+        Mockito.when(client.getFileSize(Mockito.any(AmazonS3URI.class)))
+                .thenReturn((long) index.length);
+        Mockito.when(client.getETag(Mockito.any(AmazonS3URI.class)))
+                .thenReturn("etag" + System.nanoTime());
+        AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        Mockito.when(client.getAws()).thenReturn(aws);
+        Mockito.when(aws.getObject(Mockito.any(GetObjectRequest.class))).then(invocation -> {
+            long[] range = ((GetObjectRequest) invocation.getArguments()[0]).getRange();
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(index, (int) range[0],
+                    (int) (range[1] - range[0])));
+            return object;
+        });
+
+        try {
+            SeekableStream stream = new IndexLoader(client)
+                    .loadIndex(new AmazonS3URI(OTHER_BAM)).get();
+            assertEquals(index.length, stream.length());
+            for (byte expected : index) {
+                assertEquals(expected, (byte) stream.read());
+            }
+            Mockito.verify(aws, Mockito.atLeast(index.length / maxPartSize))
+                    .getObject(Mockito.any(GetObjectRequest.class));
+        } finally {
+            Configuration.resetToDefault();
+        }
+    }
+
     @AfterClass
     public static void resetConfiguration() {
      Configuration.resetToDefault();
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3;
+
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ObjectMetadataCacheTest {
+
+    private static final AmazonS3URI FILE_URI = new AmazonS3URI("s3://bucket/file.bam");
+    private static final AmazonS3URI MISSING_URI = new AmazonS3URI("s3://bucket/missing.bai");
+    private static final long FILE_SIZE = 1000;
+    private static final String E_TAG = "etag";
+    private static final long TTL = TimeUnit.SECONDS.toNanos(60);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private long clock = 0;
+
+    private ObjectMetadata head(AmazonS3URI uri) {
+        requests.incrementAndGet();
+        if (uri.equals(MISSING_URI)) {
+            AmazonS3Exception e = new AmazonS3Exception("Not Found");
+            e.setStatusCode(404);
+            throw e;
+        }
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(FILE_SIZE);
+        metadata.setHeader("ETag", E_TAG);
+        return metadata;
+    }
+
+    @Test
+    public void metadataShouldBeRequestedOnce() {
+        ObjectMetadataCache cache = new ObjectMetadataCache(this::head, TTL, () -> clock);
+        Assert.assertTrue(cache.get(FILE_URI).exists());
+        Assert.assertEquals(FILE_SIZE, cache.get(FILE_URI).getContentLength());
+        Assert.assertEquals(E_TAG, cache.get(FILE_URI).getETag());
+        Assert.assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void missingObjectShouldBeCached() {
+        ObjectMetadataCache cache = new ObjectMetadataCache(this::head, TTL, () -> clock);
+        Assert.assertFalse(cache.get(MISSING_URI).exists());
+        Assert.assertFalse(cache.get(MISSING_URI).exists());
+        Assert.assertEquals(1, requests.get());
+    }
+
+    @Test(expected = AmazonS3Exception.class)
+    public void sizeOfMissingObjectShouldThrowException() {
+        new ObjectMetadataCache(this::head, TTL, () -> clock).get(MISSING_URI).getContentLength();
+    }
+
+    @Test
+    public void expiredMetadataShouldBeRequestedAgain() {
+        ObjectMetadataCache cache = new ObjectMetadataCache(this::head, TTL, () -> clock);
+        cache.get(FILE_URI);
+        clock += TTL;
+        cache.get(FILE_URI);
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void failedRequestShouldNotBeCached() {
+        AmazonS3Exception serverError = new AmazonS3Exception("Internal Error");
+        serverError.setStatusCode(500);
+        ObjectMetadataCache cache = new ObjectMetadataCache(uri -> {
+            if (requests.incrementAndGet() == 1) {
+                throw serverError;
+            }
+            return new ObjectMetadata();
+        }, TTL, () -> clock);
+        try {
+            cache.get(FILE_URI);
+            Assert.fail();
+        } catch (AmazonS3Exception e) {
+            Assert.assertSame(serverError, e);
+        }
+        Assert.assertTrue(cache.get(FILE_URI).exists());
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void requestFailedWithErrorShouldNotBeCached() {
+        Error error = new NoClassDefFoundError("com/amazonaws/Missing");
+        ObjectMetadataCache cache = new ObjectMetadataCache(uri -> {
+            if (requests.incrementAndGet() == 1) {
+                throw error;
+            }
+            return new ObjectMetadata();
+        }, TTL, () -> clock);
+        try {
+            cache.get(FILE_URI);
+            Assert.fail();
+        } catch (NoClassDefFoundError e) {
+            Assert.assertSame(error, e);
+        }
+        Assert.assertTrue(cache.get(FILE_URI).exists());
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void concurrentLookupsShouldShareRequest() throws Exception {
+        CountDownLatch requestStarted = new CountDownLatch(1);
+        CountDownLatch response = new CountDownLatch(1);
+        ObjectMetadataCache cache = new ObjectMetadataCache(uri -> {
+            requestStarted.countDown();
+            try {
+                response.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return head(uri);
+        }, TTL, () -> clock);
+
+        CompletableFuture<Long> first =
+                CompletableFuture.supplyAsync(() -> cache.get(FILE_URI).getContentLength());
+        requestStarted.await();
+        CompletableFuture<Long> second =
+                CompletableFuture.supplyAsync(() -> cache.get(FILE_URI).getContentLength());
+        Thread.sleep(100);
+        response.countDown();
+
+        Assert.assertEquals(FILE_SIZE, first.get(1, TimeUnit.SECONDS).longValue());
+        Assert.assertEquals(FILE_SIZE, second.get(1, TimeUnit.SECONDS).longValue());
+        Assert.assertEquals(1, requests.get());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3;
+
+import com.amazonaws.services.s3.AmazonS3URI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A benchmark of the file open latency with a new client for every open and with
+ * the shared client. An open is measured as the plugin makes it before the data flows:
+ * getting a client, the file size and the first 64 kilobytes of the file.
+ * It needs AWS access to the files.
+ *
+ * Arguments: number of opens and one or more s3 URIs of the files to open in turn.
+ */
+public final class OpenLatencyBenchmark {
+
+    private static final int FIRST_BYTES = 64 * 1024;
+    private static final double NANOS_IN_MILLISEC = 1_000_000;
+
+    private OpenLatencyBenchmark() {
+        //no operations
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Arguments: number of opens, s3 URIs of the files");
+            return;
+        }
+        int opens = Integer.parseInt(args[0]);
+        AmazonS3URI[] files = Arrays.stream(args, 1, args.length)
+                .map(AmazonS3URI::new)
+                .toArray(AmazonS3URI[]::new);
+
+        run("New client for every open", S3Client::new, opens, files);
+        run("Shared client", S3Client::getShared, opens, files);
+    }
+
+    private static void run(String name, Supplier<S3Client> clients, int opens,
+            AmazonS3URI[] files) throws IOException {
+        long[] times = new long[opens];
+        for (int i = 0; i < opens; i++) {
+            AmazonS3URI file = files[i % files.length];
+            long start = System.nanoTime();
+            S3Client client = clients.get();
+            long size = client.getFileSize(file);
+            try (InputStream stream = new S3InputStreamFactory(client)
+                    .loadFromTo(file, 0, Math.min(size, FIRST_BYTES))) {
+                byte[] buffer = new byte[FIRST_BYTES];
+                while (stream.read(buffer) != -1) {
+                    //read the first bytes
+                }
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.println(name + ": " + opens + " opens, average "
+                + format(Arrays.stream(times).average().orElse(0)) + " ms, median "
+                + format(times[opens / 2]) + " ms, 99th percentile "
+                + format(times[(int) (opens * 0.99)]) + " ms");
+    }
+
+    private static String format(double nanos) {
+        return String.format("%.2f", nanos / NANOS_IN_MILLISEC);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3;
+
+import com.epam.cmbi.s3.parallel.ByteRange;
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SamReader;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PrefetchingSamReaderTest {
+
+    private static final long FILE_SIZE = 1_000_000;
+    private static final int BLOCK_SIZE = 65536;
+
+    private SamReader reader;
+    private BAMIndex index;
+    private S3SeekableStream stream;
+
+    @Before
+    public void mockReader() {
+        reader = Mockito.mock(SamReader.class);
+        index = Mockito.mock(BAMIndex.class);
+        SamReader.Indexing indexing = Mockito.mock(SamReader.Indexing.class);
+        Mockito.when(reader.hasIndex()).thenReturn(true);
+        Mockito.when(reader.indexing()).thenReturn(indexing);
+        Mockito.when(indexing.getIndex()).thenReturn(index);
+
+        stream = Mockito.mock(S3SeekableStream.class);
+        Mockito.when(stream.length()).thenReturn(FILE_SIZE);
+    }
+
+    @Test
+    public void chunksShouldCoverWholeBlocks() {
+        List<Chunk> chunks = Arrays.asList(
+                new Chunk(virtualPointer(100, 5), virtualPointer(300, 7)),
+                new Chunk(virtualPointer(500, 0), virtualPointer(700, 0)),
+                new Chunk(virtualPointer(FILE_SIZE - 10, 1), virtualPointer(FILE_SIZE - 10, 9)));
+
+        assertEquals(Arrays.asList(
+                new ByteRange(100, 300 + BLOCK_SIZE),
+                new ByteRange(500, 700),
+                new ByteRange(FILE_SIZE - 10, FILE_SIZE)),
+                PrefetchingSamReader.toByteRanges(chunks, FILE_SIZE));
+    }
+
+    @Test
+    public void queryShouldPrefetchChunksOfAllIntervals() throws IOException {
+        Mockito.when(index.getSpanOverlapping(0, 1, 100)).thenReturn(new BAMFileSpan(
+                new Chunk(virtualPointer(1000, 0), virtualPointer(2000, 0))));
+        Mockito.when(index.getSpanOverlapping(1, 5, 50)).thenReturn(new BAMFileSpan(
+                new Chunk(virtualPointer(5000, 0), virtualPointer(6000, 0))));
+
+        QueryInterval[] intervals = {new QueryInterval(0, 1, 100), new QueryInterval(1, 5, 50)};
+        new PrefetchingSamReader(reader, stream).query(intervals, false);
+
+        Mockito.verify(stream).prefetch(Arrays.asList(
+                new ByteRange(1000, 2000), new ByteRange(5000, 6000)));
+        Mockito.verify(reader).query(intervals, false);
+    }
+
+    @Test
+    public void queryOfReferenceWithoutIndexContentShouldPrefetchOtherIntervals()
+            throws IOException {
+        Mockito.when(index.getSpanOverlapping(0, 1, 100)).thenReturn(null);
+        Mockito.when(index.getSpanOverlapping(1, 5, 50)).thenReturn(new BAMFileSpan(
+                new Chunk(virtualPointer(5000, 0), virtualPointer(6000, 0))));
+
+        QueryInterval[] intervals = {new QueryInterval(0, 1, 100), new QueryInterval(1, 5, 50)};
+        new PrefetchingSamReader(reader, stream).query(intervals, false);
+
+        Mockito.verify(stream).prefetch(Collections.singletonList(new ByteRange(5000, 6000)));
+        Mockito.verify(reader).query(intervals, false);
+    }
+
+    @Test
+    public void unmappedQueryShouldNotPrefetch() throws IOException {
+        new PrefetchingSamReader(reader, stream).queryUnmapped();
+
+        Mockito.verify(stream, Mockito.never()).prefetch(Mockito.anyListOf(ByteRange.class));
+        Mockito.verify(reader).queryUnmapped();
+    }
+
+    @Test
+    public void queryOfUnknownSequenceShouldPrefetchNothing() throws IOException {
+        Mockito.when(reader.getFileHeader()).thenReturn(new SAMFileHeader());
+        new PrefetchingSamReader(reader, stream).queryOverlapping("chrUnknown", 1, 100);
+
+        Mockito.verify(stream).prefetch(Collections.emptyList());
+        Mockito.verify(reader).queryOverlapping("chrUnknown", 1, 100);
+    }
+
+    private static long virtualPointer(long blockAddress, int blockOffset) {
+        return blockAddress << 16 | blockOffset;
+    }
+}
@@ -25,6 +25,7 @@
 package com.epam.cmbi.s3;
 
 import com.amazonaws.services.s3.AmazonS3URI;
+import com.epam.cmbi.s3.parallel.ByteRange;
 import com.epam.cmbi.s3.utils.S3DataLoaderMocker;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.junit.After;
@@ -36,8 +37,13 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.powermock.api.mockito.PowerMockito;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(MockitoJUnitRunner.class)
 public class S3SeekableStreamTest {
@@ -151,4 +157,208 @@ public class S3SeekableStreamTest {
         assertEquals(-1, fakeSeekable.read());
     }
 
+    @Test
+    public void bulkReadShouldMatchSingleByteRead() throws IOException {
+        System.setProperty(Configuration.CONNECTIONS_NUMBER_PARAMETER, "2");
+        System.setProperty(Configuration.MIN_CHUNK_SIZE_PARAMETER, "1024");
+        System.setProperty(Configuration.MAX_CHUNK_SIZE_PARAMETER, "4096");
+        Configuration.init();
+        final int dataSize = 64 * 1024;
+        Mockito.when(client.getFileSize(Mockito.any(AmazonS3URI.class)))
+                .thenReturn((long) dataSize);
+
+        S3SeekableStream bulkSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+        S3SeekableStream byteSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+
+        final int readSize = 3001;
+        byte[] buffer = new byte[readSize];
+        long expectedPosition = 0;
+        while (expectedPosition < dataSize) {
+            int bytesRead = bulkSeekable.read(buffer, 0, readSize);
+            assertEquals(Math.min(readSize, dataSize - expectedPosition), bytesRead);
+            for (int i = 0; i < bytesRead; i++) {
+                assertEquals(byteSeekable.read(), buffer[i] & 0xff);
+            }
+            expectedPosition += bytesRead;
+            assertEquals(expectedPosition, bulkSeekable.position());
+            assertEquals(expectedPosition, byteSeekable.position());
+        }
+
+        assertEquals(-1, bulkSeekable.read(buffer, 0, readSize));
+        assertEquals(dataSize, bulkSeekable.position());
+        assertTrue(bulkSeekable.eof());
+        bulkSeekable.close();
+        byteSeekable.close();
+        Configuration.resetToDefault();
+    }
+
+    @Test
+    public void positionShouldCountMixedReadsAndSkips() throws IOException {
+        S3SeekableStream fakeSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+        final int arraySize = 100_000;
+        byte[] loadArray = new byte[arraySize];
+        fakeSeekable.readFully(loadArray);
+        assertEquals(arraySize, fakeSeekable.position());
+
+        final int skipSize = 50_000;
+        fakeSeekable.seek(arraySize + skipSize);
+        assertEquals(arraySize + skipSize, fakeSeekable.position());
+
+        assertEquals(arraySize, fakeSeekable.read(loadArray, 0, arraySize));
+        assertEquals((byte) (arraySize + skipSize), loadArray[0]);
+        assertEquals(2 * arraySize + skipSize, fakeSeekable.position());
+        fakeSeekable.close();
+    }
+
+    @Test
+    public void byteBufferReadShouldCountPosition() throws IOException {
+        S3SeekableStream fakeSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+        assertEquals(0, fakeSeekable.read());
+
+        final int bufferSize = 100_000;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        assertEquals(bufferSize, fakeSeekable.read(buffer));
+        assertEquals(1 + bufferSize, fakeSeekable.position());
+        assertEquals(0, fakeSeekable.read(buffer));
+
+        buffer.flip();
+        for (int i = 0; i < bufferSize; i++) {
+            assertEquals((byte) (1 + i), buffer.get());
+        }
+        fakeSeekable.close();
+    }
+
+    @Test
+    public void seeksShouldBeServedFromPrefetchedRanges() throws IOException {
+        S3SeekableStream fakeSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+        final long firstRangeStart = FILE_SIZE / 2;
+        final long secondRangeStart = FILE_SIZE - 1000;
+        final int rangeLength = 100;
+        fakeSeekable.prefetch(Arrays.asList(
+                new ByteRange(secondRangeStart, secondRangeStart + rangeLength),
+                new ByteRange(firstRangeStart, firstRangeStart + rangeLength)));
+
+        fakeSeekable.seek(firstRangeStart);
+        byte[] buffer = new byte[rangeLength];
+        fakeSeekable.readFully(buffer);
+        assertEquals((byte) firstRangeStart, buffer[0]);
+        assertEquals((byte) (firstRangeStart + rangeLength - 1), buffer[rangeLength - 1]);
+
+        fakeSeekable.seek(secondRangeStart);
+        fakeSeekable.readFully(buffer);
+        assertEquals((byte) secondRangeStart, buffer[0]);
+        Mockito.verify(factory).loadFromTo(S3DataLoaderMocker.FAKE_URI, firstRangeStart,
+                firstRangeStart + rangeLength);
+        Mockito.verify(factory).loadFromTo(S3DataLoaderMocker.FAKE_URI, secondRangeStart,
+                secondRangeStart + rangeLength);
+
+        //reading past the prefetched ranges continues from S3
+        assertEquals((secondRangeStart + rangeLength) & 0xff, fakeSeekable.read());
+        assertEquals(secondRangeStart + rangeLength + 1, fakeSeekable.position());
+        fakeSeekable.close();
+    }
+
+    @Test
+    public void nearbyPrefetchedRangesShouldBeFetchedTogether() throws IOException {
+        S3SeekableStream fakeSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+        final long firstRangeStart = FILE_SIZE / 2;
+        final int rangeLength = 100;
+        final long secondRangeStart = firstRangeStart + 2 * rangeLength;
+        fakeSeekable.prefetch(Arrays.asList(
+                new ByteRange(firstRangeStart, firstRangeStart + rangeLength),
+                new ByteRange(secondRangeStart, secondRangeStart + rangeLength)));
+
+        fakeSeekable.seek(firstRangeStart);
+        assertEquals(firstRangeStart & 0xff, fakeSeekable.read());
+        fakeSeekable.seek(secondRangeStart);
+        assertEquals(secondRangeStart & 0xff, fakeSeekable.read());
+        Mockito.verify(factory).loadFromTo(S3DataLoaderMocker.FAKE_URI, firstRangeStart,
+                secondRangeStart + rangeLength);
+        fakeSeekable.close();
+    }
+
+    @Test
+    public void eofBlockCheckShouldNotRestartSequentialStream() throws IOException {
+        final int eofBlockSize = 28;
+        final long tailStart = FILE_SIZE - S3SeekableStream.TAIL_WINDOW_SIZE;
+        S3SeekableStream fakeSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                client,
+                factory);
+        assertEquals(0, fakeSeekable.read());
+
+        fakeSeekable.seek(FILE_SIZE - eofBlockSize);
+        byte[] eofBlock = new byte[eofBlockSize];
+        assertEquals(eofBlockSize, fakeSeekable.read(eofBlock));
+        for (int i = 0; i < eofBlockSize; i++) {
+            assertEquals((byte) (FILE_SIZE - eofBlockSize + i), eofBlock[i]);
+        }
+        assertEquals(-1, fakeSeekable.read());
+        assertEquals(FILE_SIZE, fakeSeekable.position());
+
+        fakeSeekable.seek(1);
+        assertEquals(1, fakeSeekable.read());
+        fakeSeekable.seek(FILE_SIZE - eofBlockSize);
+        assertEquals((FILE_SIZE - eofBlockSize) & 0xff, fakeSeekable.read());
+
+        //one request for the tail window, the sequential stream isn't started again
+        Mockito.verify(factory).loadFromTo(S3DataLoaderMocker.FAKE_URI, tailStart, FILE_SIZE);
+        Mockito.verify(factory).loadFromTo(Mockito.eq(S3DataLoaderMocker.FAKE_URI),
+                Mockito.eq(0L), Mockito.anyLong());
+        Mockito.verify(factory, Mockito.never()).loadFromTo(
+                Mockito.eq(S3DataLoaderMocker.FAKE_URI), Mockito.eq(FILE_SIZE - eofBlockSize),
+                Mockito.anyLong());
+        fakeSeekable.close();
+    }
+
+    @Test
+    public void readAcrossDroppedPartsShouldContinueFromThere()
+            throws IOException, InterruptedException {
+        final int partSize = 100;
+        final int partsCount = 10;
+        System.setProperty(Configuration.CONNECTIONS_NUMBER_PARAMETER, "2");
+        System.setProperty(Configuration.MAX_CHUNK_SIZE_PARAMETER, Integer.toString(partSize));
+        System.setProperty(Configuration.MIN_CHUNK_SIZE_PARAMETER, Integer.toString(partSize));
+        System.setProperty(Configuration.HEAD_WINDOW_SIZE_PARAMETER, "0");
+        Configuration.init();
+        final long fileSize = partSize * partsCount;
+        Mockito.when(client.getFileSize(Mockito.any(AmazonS3URI.class))).thenReturn(fileSize);
+        CountDownLatch loadedParts = new CountDownLatch(partsCount);
+        S3DataLoaderMocker.mockAutoSeqLoadFromTo(factory, loadedParts);
+
+        try {
+            S3SeekableStream fakeSeekable = new S3SeekableStream(S3DataLoaderMocker.FAKE_URI,
+                    client,
+                    factory);
+            assertEquals(0, fakeSeekable.read());
+            assertTrue(loadedParts.await(10, TimeUnit.SECONDS));
+            fakeSeekable.seek(5 * partSize);
+            assertEquals((5 * partSize) & 0xff, fakeSeekable.read());
+
+            fakeSeekable.seek(1);
+            for (int i = 1; i < fileSize; i++) {
+                assertEquals(i & 0xff, fakeSeekable.read());
+            }
+            assertEquals(-1, fakeSeekable.read());
+            fakeSeekable.close();
+            //only the dropped parts are loaded again
+            for (long from = 5 * partSize; from < fileSize; from += partSize) {
+                Mockito.verify(factory).loadFromTo(Mockito.any(AmazonS3URI.class),
+                        Mockito.eq(from), Mockito.anyLong());
+            }
+        } finally {
+            Configuration.resetToDefault();
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BgzfBlocksTest {
+
+    private static final int BGZF_EOF_BLOCK_LENGTH = 28;
+
+    @Test
+    public void wholeBlocksShouldBeFound() throws IOException {
+        byte[] data = bgzfData(3);
+        Assert.assertEquals(data.length, BgzfBlocks.wholeBlocksLength(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    public void incompleteBlockShouldNotBeCounted() throws IOException {
+        byte[] firstBlock = bgzfData(0);
+        byte[] data = bgzfData(1);
+        int firstBlockLength = firstBlock.length - BGZF_EOF_BLOCK_LENGTH;
+        for (int end = firstBlockLength; end < data.length - BGZF_EOF_BLOCK_LENGTH; end++) {
+            ByteBuffer part = ByteBuffer.wrap(Arrays.copyOf(data, end));
+            Assert.assertEquals(firstBlockLength, BgzfBlocks.wholeBlocksLength(part));
+        }
+        ByteBuffer partOfFirstBlock = ByteBuffer.wrap(Arrays.copyOf(data, firstBlockLength - 1));
+        Assert.assertEquals(0, BgzfBlocks.wholeBlocksLength(partOfFirstBlock));
+    }
+
+    @Test
+    public void dataWithoutBlocksShouldBeRejected() throws IOException {
+        byte[] data = bgzfData(2);
+        ByteBuffer shifted = ByteBuffer.wrap(Arrays.copyOfRange(data, 1, data.length));
+        Assert.assertEquals(-1, BgzfBlocks.wholeBlocksLength(shifted));
+        Assert.assertEquals(-1, BgzfBlocks.wholeBlocksLength(ByteBuffer.wrap(new byte[100])));
+    }
+
+    /**
+     * @return BGZF data of a one byte block, the given number of blocks of random data
+     * of different sizes and the EOF block.
+     */
+    static byte[] bgzfData(int blocks) throws IOException {
+        Random random = new Random(blocks);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (BlockCompressedOutputStream stream = new BlockCompressedOutputStream(data, null)) {
+            byte[] firstBlock = new byte[1];
+            stream.write(firstBlock);
+            stream.flush();
+            for (int i = 0; i < blocks; i++) {
+                byte[] block = new byte[20 + random.nextInt(400)];
+                random.nextBytes(block);
+                stream.write(block);
+                stream.flush();
+            }
+        }
+        return data.toByteArray();
+    }
+}
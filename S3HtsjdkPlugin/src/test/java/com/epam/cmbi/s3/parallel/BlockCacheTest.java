@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BlockCacheTest {
+
+    private static final int BLOCK_SIZE = 4;
+    private static final String OBJECT_ID = BlockCache.objectId("bucket", "key", "etag");
+
+    @Test
+    public void rangeShouldBeCopiedFromSeveralBlocks() {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE, BLOCK_SIZE);
+        cache.put(OBJECT_ID, 0, block(0));
+        cache.put(OBJECT_ID, 1, block(1));
+
+        ByteBuffer part = ByteBuffer.allocate(5);
+        Assert.assertTrue(cache.copyRange(OBJECT_ID, 2, 7, part));
+        for (int i = 0; i < part.limit(); i++) {
+            Assert.assertEquals(i + 2, part.get(i));
+        }
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void rangeWithMissingBlockShouldNotBeServed() {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE, BLOCK_SIZE);
+        cache.put(OBJECT_ID, 0, block(0));
+
+        Assert.assertFalse(cache.copyRange(OBJECT_ID, 2, 7, ByteBuffer.allocate(5)));
+        Assert.assertFalse(cache.copyRange(BlockCache.objectId("bucket", "key", "other"),
+                0, BLOCK_SIZE, ByteBuffer.allocate(BLOCK_SIZE)));
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedBlockShouldBeEvicted() {
+        BlockCache cache = new BlockCache(2 * BLOCK_SIZE, BLOCK_SIZE);
+        cache.put(OBJECT_ID, 0, block(0));
+        cache.put(OBJECT_ID, 1, block(1));
+        Assert.assertTrue(cache.copyRange(OBJECT_ID, 0, 1, ByteBuffer.allocate(1)));
+        cache.put(OBJECT_ID, 2, block(2));
+
+        Assert.assertEquals(2 * BLOCK_SIZE, cache.getSize());
+        Assert.assertTrue(cache.contains(OBJECT_ID, 0));
+        Assert.assertFalse(cache.contains(OBJECT_ID, 1));
+        Assert.assertTrue(cache.contains(OBJECT_ID, 2));
+    }
+
+    @Test
+    public void writerShouldCacheOnlyFullyConsumedBlocks() {
+        BlockCache cache = new BlockCache(8 * BLOCK_SIZE, BLOCK_SIZE);
+        BlockCacheWriter writer = new BlockCacheWriter(cache, OBJECT_ID, 5 * BLOCK_SIZE);
+        writer.write(2, data(2, 7));
+        writer.write(10, data(10, 3));
+        writer.write(14, data(14, 6));
+
+        Assert.assertFalse(cache.contains(OBJECT_ID, 0));
+        Assert.assertTrue(cache.contains(OBJECT_ID, 1));
+        Assert.assertFalse(cache.contains(OBJECT_ID, 2));
+        Assert.assertFalse(cache.contains(OBJECT_ID, 3));
+        Assert.assertTrue(cache.contains(OBJECT_ID, 4));
+
+        ByteBuffer part = ByteBuffer.allocate(BLOCK_SIZE);
+        Assert.assertTrue(cache.copyRange(OBJECT_ID, BLOCK_SIZE, 2 * BLOCK_SIZE, part));
+        Assert.assertEquals(BLOCK_SIZE, part.get(0));
+    }
+
+    @Test
+    public void writerShouldCacheShortLastBlock() {
+        final int objectLength = 2 * BLOCK_SIZE + 1;
+        BlockCache cache = new BlockCache(8 * BLOCK_SIZE, BLOCK_SIZE);
+        BlockCacheWriter writer = new BlockCacheWriter(cache, OBJECT_ID, objectLength);
+        writer.write(0, data(0, objectLength));
+
+        Assert.assertTrue(cache.contains(OBJECT_ID, 2));
+        Assert.assertEquals(objectLength, cache.getSize());
+        ByteBuffer part = ByteBuffer.allocate(3);
+        Assert.assertTrue(cache.copyRange(OBJECT_ID, objectLength - 3, objectLength, part));
+        for (int i = 0; i < part.limit(); i++) {
+            Assert.assertEquals(objectLength - 3 + i, part.get(i));
+        }
+        Assert.assertFalse(cache.copyRange(OBJECT_ID, 0, objectLength + 1,
+                ByteBuffer.allocate(objectLength + 1)));
+    }
+
+        private static byte[] block(int index) {
+        return data(index * BLOCK_SIZE, BLOCK_SIZE).array();
+    }
+
+    private static ByteBuffer data(int from, int length) {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            data.put(i, (byte) (from + i));
+        }
+        return data;
+    }
+}
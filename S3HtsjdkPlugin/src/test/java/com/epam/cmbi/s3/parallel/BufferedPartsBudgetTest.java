@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class BufferedPartsBudgetTest {
+
+    private static final int CAPACITY = 128;
+    private static final int MIN_SIZE = 16;
+
+    @Test
+    public void partShouldBeReservedInFull() throws InterruptedException {
+        BufferedPartsBudget budget = new BufferedPartsBudget(CAPACITY);
+        Assert.assertEquals(64, budget.reserve(64, MIN_SIZE, () -> 0));
+        Assert.assertEquals(64, budget.getUsedBytes());
+        budget.release(64);
+        Assert.assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void partShouldTakeCapacityOfItsBuffer() throws InterruptedException {
+        BufferedPartsBudget budget = new BufferedPartsBudget(CAPACITY);
+        Assert.assertEquals(40, budget.reserve(40, MIN_SIZE, () -> 0));
+        Assert.assertEquals(64, budget.getUsedBytes());
+        budget.release(40);
+        Assert.assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void partShouldBeShrunkToRemainingBytes() throws InterruptedException {
+        BufferedPartsBudget budget = new BufferedPartsBudget(CAPACITY);
+        budget.reserve(80, MIN_SIZE, () -> 0);
+        Assert.assertEquals(CAPACITY, budget.getUsedBytes());
+        budget.release(80);
+        budget.reserve(64, MIN_SIZE, () -> 0);
+        Assert.assertEquals(64, budget.reserve(100, MIN_SIZE, () -> 64));
+        Assert.assertEquals(1, budget.getShrunkParts());
+    }
+
+    @Test
+    public void streamWithReservedPartsShouldWaitForRelease() throws Exception {
+        BufferedPartsBudget budget = new BufferedPartsBudget(CAPACITY);
+        budget.reserve(120, MIN_SIZE, () -> 0);
+        CompletableFuture<Integer> reserved = reserveAsync(budget, 64, 64);
+        try {
+            reserved.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            budget.release(120);
+        }
+        Assert.assertEquals(64, reserved.get(1, TimeUnit.SECONDS).intValue());
+        Assert.assertEquals(1, budget.getWaits());
+    }
+
+    @Test
+    public void streamWithoutReservedPartsShouldNotWait() throws InterruptedException {
+        BufferedPartsBudget budget = new BufferedPartsBudget(CAPACITY);
+        budget.reserve(CAPACITY, MIN_SIZE, () -> 0);
+        Assert.assertEquals(MIN_SIZE, budget.reserve(50, MIN_SIZE, () -> 0));
+        Assert.assertEquals(CAPACITY + MIN_SIZE, budget.getUsedBytes());
+    }
+
+    @Test
+    public void streamShouldWaitOverItsShareOfBudget() throws Exception {
+        BufferedPartsBudget budget = new BufferedPartsBudget(CAPACITY);
+        budget.register();
+        budget.register();
+        Assert.assertEquals(CAPACITY / 2, budget.reserve(CAPACITY, MIN_SIZE, () -> 0));
+        CompletableFuture<Integer> reserved = reserveAsync(budget, 32, CAPACITY / 2);
+        try {
+            reserved.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            //the other stream gets the rest of the budget meanwhile
+            Assert.assertEquals(32, budget.reserve(32, MIN_SIZE, () -> MIN_SIZE));
+            budget.unregister();
+        }
+        Assert.assertEquals(32, reserved.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    private static CompletableFuture<Integer> reserveAsync(BufferedPartsBudget budget, int size,
+            long streamBytes) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.reserve(size, MIN_SIZE, () -> streamBytes);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
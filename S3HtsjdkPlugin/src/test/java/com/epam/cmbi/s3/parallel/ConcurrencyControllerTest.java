@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrencyControllerTest {
+
+    private static final int MAX_LIMIT = 8;
+    private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BYTES = 1024 * 1024;
+
+    private long clock = TimeUnit.SECONDS.toNanos(100);
+
+    private ConcurrencyController createController(boolean adaptive) {
+        return new ConcurrencyController(MAX_LIMIT, MAX_LIMIT, adaptive, () -> clock);
+    }
+
+    private static void useUpTheLimit(ConcurrencyController controller)
+            throws InterruptedException {
+        while (controller.getInFlight() < controller.getLimit()) {
+            controller.acquire();
+        }
+    }
+
+    @Test
+    public void acquireShouldWaitForReleaseAtTheLimit() throws InterruptedException {
+        ConcurrencyController controller = new ConcurrencyController(1, true);
+        controller.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            try {
+                controller.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+
+        Assert.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        controller.release();
+        Assert.assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, controller.getInFlight());
+    }
+
+    @Test
+    public void throttlingShouldHalveTheLimitOncePerCooldown() {
+        ConcurrencyController controller = createController(true);
+        controller.onThrottled();
+        controller.onThrottled();
+        Assert.assertEquals(MAX_LIMIT / 2, controller.getLimit());
+
+        clock += ConcurrencyController.BACKOFF_COOLDOWN_NANOS;
+        controller.onThrottled();
+        Assert.assertEquals(MAX_LIMIT / 4, controller.getLimit());
+        Assert.assertEquals(2, controller.getBackoffs());
+    }
+
+    @Test
+    public void limitShouldNotDropBelowOne() {
+        ConcurrencyController controller = createController(true);
+        for (int i = 0; i < 10; i++) {
+            controller.onThrottled();
+            clock += ConcurrencyController.BACKOFF_COOLDOWN_NANOS;
+        }
+        Assert.assertEquals(1, controller.getLimit());
+    }
+
+    @Test
+    public void latencyInflationShouldReduceTheLimit() {
+        ConcurrencyController controller = createController(true);
+        for (int i = 0; i < ConcurrencyController.MIN_LATENCY_SAMPLES; i++) {
+            controller.onTransfer(BYTES, LATENCY_NANOS);
+        }
+        Assert.assertEquals(MAX_LIMIT, controller.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            controller.onTransfer(BYTES, 10 * LATENCY_NANOS);
+        }
+        Assert.assertEquals(6, controller.getLimit());
+    }
+
+    @Test
+    public void limitShouldGrowWhileThroughputImproves() throws InterruptedException {
+        ConcurrencyController controller = createController(true);
+        controller.onThrottled();
+        clock += ConcurrencyController.BACKOFF_COOLDOWN_NANOS;
+        useUpTheLimit(controller);
+        controller.onTransfer(BYTES, LATENCY_NANOS);
+        Assert.assertEquals(MAX_LIMIT / 2 + 1, controller.getLimit());
+
+        clock += ConcurrencyController.WINDOW_NANOS;
+        useUpTheLimit(controller);
+        controller.onTransfer(2 * BYTES, LATENCY_NANOS);
+        Assert.assertEquals(MAX_LIMIT / 2 + 2, controller.getLimit());
+
+        clock += ConcurrencyController.WINDOW_NANOS;
+        useUpTheLimit(controller);
+        controller.onTransfer(2 * BYTES, LATENCY_NANOS);
+        Assert.assertEquals(MAX_LIMIT / 2 + 2, controller.getLimit());
+    }
+
+    @Test
+    public void limitShouldNotGrowIfItIsNotUsedUp() {
+        ConcurrencyController controller =
+                new ConcurrencyController(MAX_LIMIT, 1, true, () -> clock);
+        for (int i = 1; i <= 3; i++) {
+            clock += ConcurrencyController.WINDOW_NANOS;
+            controller.onTransfer(i * BYTES, LATENCY_NANOS);
+        }
+        Assert.assertEquals(1, controller.getLimit());
+    }
+
+    @Test
+    public void adaptiveLimitShouldStartBelowMaxAndGrowUpToIt() throws InterruptedException {
+        ConcurrencyController controller = new ConcurrencyController(MAX_LIMIT, true);
+        Assert.assertEquals((int) (MAX_LIMIT * ConcurrencyController.INITIAL_LIMIT_SHARE),
+                controller.getLimit());
+        Assert.assertEquals(MAX_LIMIT, new ConcurrencyController(MAX_LIMIT, false).getLimit());
+
+        controller = new ConcurrencyController(MAX_LIMIT, 1, true, () -> clock);
+        for (int i = 1; i <= 2 * MAX_LIMIT; i++) {
+            clock += ConcurrencyController.WINDOW_NANOS;
+            useUpTheLimit(controller);
+            controller.onTransfer(i * BYTES, LATENCY_NANOS);
+        }
+        Assert.assertEquals(MAX_LIMIT, controller.getLimit());
+    }
+
+    @Test
+    public void limitShouldNotGrowOverMax() throws InterruptedException {
+        ConcurrencyController controller = createController(true);
+        for (int i = 1; i <= 3; i++) {
+            clock += ConcurrencyController.WINDOW_NANOS;
+            useUpTheLimit(controller);
+            controller.onTransfer(i * BYTES, LATENCY_NANOS);
+        }
+        Assert.assertEquals(MAX_LIMIT, controller.getLimit());
+    }
+
+    @Test
+    public void nonAdaptiveControllerShouldKeepTheLimit() {
+        ConcurrencyController controller = createController(false);
+        controller.onThrottled();
+        for (int i = 0; i < ConcurrencyController.MIN_LATENCY_SAMPLES; i++) {
+            controller.onTransfer(BYTES, (i + 1) * LATENCY_NANOS);
+        }
+        Assert.assertEquals(MAX_LIMIT, controller.getLimit());
+        Assert.assertEquals(0, controller.getBackoffs());
+    }
+}
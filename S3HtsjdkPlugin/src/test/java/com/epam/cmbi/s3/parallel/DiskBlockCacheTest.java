@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+public class DiskBlockCacheTest {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final String OBJECT_ID = BlockCache.objectId("bucket", "key", "etag");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void blockShouldBeKeptBetweenCacheInstances() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        new DiskBlockCache(directory, Long.MAX_VALUE).put(OBJECT_ID, 3, block(3));
+
+        DiskBlockCache cache = new DiskBlockCache(directory, Long.MAX_VALUE);
+        Assert.assertArrayEquals(block(3), cache.get(OBJECT_ID, 3, BLOCK_SIZE));
+        Assert.assertNull(cache.get(OBJECT_ID, 2, BLOCK_SIZE));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void blockShouldNotBeServedForChangedObjectOrBlockSize() throws IOException {
+        DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+        cache.put(OBJECT_ID, 0, block(0));
+
+        Assert.assertNull(cache.get(BlockCache.objectId("bucket", "key", "other"), 0,
+                BLOCK_SIZE));
+        Assert.assertNull(cache.get(OBJECT_ID, 0, 2 * BLOCK_SIZE));
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertNull(cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+    }
+
+    @Test
+    public void shortLastBlockShouldBeServedForItsBlockSizeOnly() throws IOException {
+        DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+        byte[] lastBlock = new byte[BLOCK_SIZE / 2];
+        cache.put(OBJECT_ID, 5, BLOCK_SIZE, lastBlock);
+
+        Assert.assertArrayEquals(lastBlock, cache.get(OBJECT_ID, 5, BLOCK_SIZE));
+        Assert.assertNull(cache.get(OBJECT_ID, 5, BLOCK_SIZE / 2));
+    }
+
+    @Test
+    public void truncatedBlockFileShouldBeRemoved() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        DiskBlockCache cache = new DiskBlockCache(directory, Long.MAX_VALUE);
+        cache.put(OBJECT_ID, 0, block(0));
+        Path blockFile = Files.list(directory).findFirst().get();
+        Files.write(blockFile, new byte[BLOCK_SIZE]);
+
+        Assert.assertNull(cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+        Assert.assertFalse(Files.exists(blockFile));
+    }
+
+    @Test
+    public void leastRecentlyUsedFileShouldBeEvicted() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        DiskBlockCache cache = new DiskBlockCache(directory, Long.MAX_VALUE);
+        cache.put(OBJECT_ID, 0, block(0));
+        final long fileSize = cache.getSize();
+
+        cache = new DiskBlockCache(directory, 2 * fileSize);
+        cache.put(OBJECT_ID, 1, block(1));
+        Assert.assertNotNull(cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+        cache.put(OBJECT_ID, 2, block(2));
+
+        Assert.assertEquals(2 * fileSize, cache.getSize());
+        Assert.assertEquals(2, Files.list(directory).count());
+        Assert.assertNotNull(cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+        Assert.assertNull(cache.get(OBJECT_ID, 1, BLOCK_SIZE));
+        Assert.assertNotNull(cache.get(OBJECT_ID, 2, BLOCK_SIZE));
+    }
+
+    @Test
+    public void blockCacheShouldFallBackToDisk() throws IOException {
+        DiskBlockCache diskCache = new DiskBlockCache(folder.getRoot().toPath(), Long.MAX_VALUE,
+                Runnable::run);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE, diskCache);
+        cache.put(OBJECT_ID, 0, block(0));
+        cache.put(OBJECT_ID, 1, block(1));
+        Assert.assertFalse(cache.contains(OBJECT_ID, 0));
+
+        ByteBuffer part = ByteBuffer.allocate(BLOCK_SIZE);
+        Assert.assertTrue(cache.copyRange(OBJECT_ID, 0, BLOCK_SIZE, part));
+        for (int i = 0; i < part.limit(); i++) {
+            Assert.assertEquals(i, part.get(i));
+        }
+        Assert.assertEquals(1, diskCache.getHits());
+        Assert.assertTrue(cache.contains(OBJECT_ID, 0));
+    }
+
+    @Test
+    public void blockShouldBeStoredByBackgroundWriter() throws IOException {
+        List<Runnable> writes = new ArrayList<>();
+        DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), Long.MAX_VALUE,
+                writes::add);
+        cache.putInBackground(OBJECT_ID, 0, BLOCK_SIZE, block(0));
+        Assert.assertNull(cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+
+        writes.forEach(Runnable::run);
+        Assert.assertArrayEquals(block(0), cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+    }
+
+    @Test
+    public void blockShouldBeDroppedIfWriterIsBehind() throws IOException {
+        DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), Long.MAX_VALUE,
+                write -> {
+                    throw new RejectedExecutionException();
+                });
+        cache.putInBackground(OBJECT_ID, 0, BLOCK_SIZE, block(0));
+
+        Assert.assertEquals(1, cache.getDroppedWrites());
+        Assert.assertNull(cache.get(OBJECT_ID, 0, BLOCK_SIZE));
+    }
+
+    private static byte[] block(int index) {
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block[i] = (byte) (index * BLOCK_SIZE + i);
+        }
+        return block;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import com.epam.cmbi.s3.Configuration.ExecutionMode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+public class ExecutorsFactoryTest {
+
+    @Test
+    public void platformExecutorShouldRunTasksOnDaemonThreads()
+            throws ExecutionException, InterruptedException {
+        ExecutorService executor = ExecutorsFactory.createTasksExecutor(ExecutionMode.PLATFORM);
+        Assert.assertTrue(executor.submit(() -> Thread.currentThread().isDaemon()).get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void virtualExecutorShouldRunTasksOnAnyRuntime()
+            throws ExecutionException, InterruptedException {
+        ExecutorService executor = ExecutorsFactory.createTasksExecutor(ExecutionMode.VIRTUAL);
+        Assert.assertTrue(executor.submit(() -> Thread.currentThread().isDaemon()).get());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Optional;
+
+public class IndexCacheTest {
+
+    private static final String BUCKET = "bucket";
+    private static final String KEY = "file.bam.bai";
+    private static final String E_TAG = "etag";
+    private static final byte[] INDEX = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storedIndexShouldBeServed() {
+        IndexCache cache = new IndexCache(1024, null);
+        Assert.assertFalse(cache.get(BUCKET, KEY, E_TAG, INDEX.length).isPresent());
+        cache.put(BUCKET, KEY, E_TAG, INDEX);
+
+        Optional<byte[]> cached = cache.get(BUCKET, KEY, E_TAG, INDEX.length);
+        Assert.assertArrayEquals(INDEX, cached.orElseThrow(AssertionError::new));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void changedIndexShouldNotBeServed() {
+        IndexCache cache = new IndexCache(1024, null);
+        cache.put(BUCKET, KEY, E_TAG, INDEX);
+        Assert.assertFalse(cache.get(BUCKET, KEY, "other", INDEX.length).isPresent());
+        Assert.assertFalse(cache.get(BUCKET, KEY, E_TAG, INDEX.length + 1).isPresent());
+    }
+
+    @Test
+    public void leastRecentlyUsedIndexShouldBeEvicted() {
+        IndexCache cache = new IndexCache(2 * INDEX.length, null);
+        cache.put(BUCKET, "first.bai", E_TAG, INDEX);
+        cache.put(BUCKET, "second.bai", E_TAG, INDEX);
+        cache.get(BUCKET, "first.bai", E_TAG, INDEX.length);
+        cache.put(BUCKET, "third.bai", E_TAG, INDEX);
+
+        Assert.assertTrue(cache.get(BUCKET, "first.bai", E_TAG, INDEX.length).isPresent());
+        Assert.assertFalse(cache.get(BUCKET, "second.bai", E_TAG, INDEX.length).isPresent());
+        Assert.assertEquals(2 * INDEX.length, cache.getSize());
+    }
+
+    @Test
+    public void indexShouldBeServedFromDiskByAnotherCache() throws IOException {
+        new IndexCache(1024, new DiskBlockCache(folder.getRoot().toPath(), 1024))
+                .put(BUCKET, KEY, E_TAG, INDEX);
+
+        IndexCache cache = new IndexCache(0, new DiskBlockCache(folder.getRoot().toPath(), 1024));
+        Optional<byte[]> cached = cache.get(BUCKET, KEY, E_TAG, INDEX.length);
+        Assert.assertArrayEquals(INDEX, cached.orElseThrow(AssertionError::new));
+        Assert.assertEquals(1, cache.getDiskHits());
+        Assert.assertFalse(cache.get(BUCKET, KEY, "other", INDEX.length).isPresent());
+    }
+
+    @Test
+    public void indexShouldBeKeptApartFromBlocksOfSameDiskCache() throws IOException {
+        DiskBlockCache diskCache = new DiskBlockCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+        byte[] block = new byte[INDEX.length];
+        diskCache.put(BlockCache.objectId(BUCKET, KEY, E_TAG), 0, block);
+        new IndexCache(0, diskCache).put(BUCKET, KEY, E_TAG, INDEX);
+
+        Optional<byte[]> cached = new IndexCache(0, diskCache)
+                .get(BUCKET, KEY, E_TAG, INDEX.length);
+        Assert.assertArrayEquals(INDEX, cached.orElseThrow(AssertionError::new));
+        Assert.assertArrayEquals(block, diskCache.get(BlockCache.objectId(BUCKET, KEY, E_TAG),
+                0, INDEX.length));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+    @Test
+    public void percentileShouldBeUnknownWithFewSamples() {
+        LatencyWindow window = new LatencyWindow();
+        for (int i = 1; i < LatencyWindow.MIN_SAMPLES; i++) {
+            window.record(i);
+        }
+        Assert.assertEquals(-1, window.getPercentile(95));
+    }
+
+    @Test
+    public void percentileShouldBeTakenFromRecordedSamples() {
+        LatencyWindow window = new LatencyWindow();
+        for (int i = 1; i <= 20; i++) {
+            window.record(i);
+        }
+        Assert.assertEquals(19, window.getPercentile(95));
+        Assert.assertEquals(10, window.getPercentile(50));
+        Assert.assertEquals(20, window.getPercentile(100));
+    }
+
+    @Test
+    public void percentileShouldForgetOldSamples() {
+        LatencyWindow window = new LatencyWindow();
+        for (int i = 0; i < LatencyWindow.WINDOW_SIZE; i++) {
+            window.record(1000);
+        }
+        for (int i = 0; i < LatencyWindow.WINDOW_SIZE; i++) {
+            window.record(1);
+        }
+        Assert.assertEquals(1, window.getPercentile(100));
+    }
+}
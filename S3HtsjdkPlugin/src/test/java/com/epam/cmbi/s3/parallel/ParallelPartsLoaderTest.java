@@ -35,12 +35,22 @@ import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.amazonaws.services.s3.AmazonS3URI;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(PowerMockRunner.class)
 public class ParallelPartsLoaderTest {
@@ -57,6 +67,9 @@ public class ParallelPartsLoaderTest {
         System.setProperty(Configuration.CONNECTIONS_NUMBER_PARAMETER, Integer.toString(NUM_OF_THREADS));
         System.setProperty(Configuration.MAX_CHUNK_SIZE_PARAMETER, Integer.toString(MAX_PART_SIZE));
         System.setProperty(Configuration.MIN_CHUNK_SIZE_PARAMETER, Integer.toString(MIN_PART_SIZE));
+        //the tests check the fixed part size schedule
+        System.setProperty(Configuration.ADAPTIVE_PART_SIZE_PARAMETER, "false");
+        System.setProperty(Configuration.HEAD_WINDOW_SIZE_PARAMETER, "0");
         Configuration.init();
 
         mockFactory = Mockito.mock(S3InputStreamFactory.class);
@@ -70,7 +83,7 @@ public class ParallelPartsLoaderTest {
 
     @Test
     public void rightNumberOfProduceTasksTest() throws InterruptedException {
-        BlockingQueue<Future<Optional<byte[]>>> tasksQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<PartFuture> tasksQueue = new LinkedBlockingQueue<>();
 
         S3DataLoaderMocker.mockPrimitiveLoadFromTo(mockFactory, DATA_SIZE);
 
@@ -91,7 +104,7 @@ public class ParallelPartsLoaderTest {
 
     @Test
     public void rightBoundsOfProduceTasksTest() throws Exception {
-        BlockingQueue<Future<Optional<byte[]>>> tasksQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<PartFuture> tasksQueue = new LinkedBlockingQueue<>();
         S3DataLoaderMocker.mockPrimitiveLoadFromTo(mockFactory, DATA_SIZE);
 
         new ParallelPartsLoader(
@@ -111,9 +124,162 @@ public class ParallelPartsLoaderTest {
         Assert.assertFalse(tasksQueue.take().get().isPresent());
     }
 
+    @Test
+    public void headWindowShouldBeSplitForAllConnections() throws Exception {
+        final int headWindowSize = 12;
+        System.setProperty(Configuration.HEAD_WINDOW_SIZE_PARAMETER,
+                Integer.toString(headWindowSize));
+        Configuration.init();
+        BlockingQueue<PartFuture> tasksQueue = new LinkedBlockingQueue<>();
+        S3DataLoaderMocker.mockPrimitiveLoadFromTo(mockFactory, DATA_SIZE);
+
+        new ParallelPartsLoader(
+                S3DataLoaderMocker.FAKE_URI,
+                0,
+                DATA_SIZE,
+                mockFactory,
+                tasksQueue
+        );
+        //the head window parts, then the parts ramped up after them
+        int[] expectedSizes = {6, 6, 8, 8, 8, 1};
+        for (int expectedSize : expectedSizes) {
+            checkRightSizeOfChunk(tasksQueue, expectedSize);
+        }
+        Assert.assertFalse(tasksQueue.take().get().isPresent());
+    }
+
+    @Test
+    public void partsShouldBeAlignedToBgzfBlocks() throws IOException {
+        setAlignedParts(200, 100);
+        byte[] data = BgzfBlocksTest.bgzfData(20);
+        mockData(data);
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                data.length, mockFactory);
+        ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+        int parts = readAlignedParts(loader, 0, loaded);
+        Assert.assertArrayEquals(data, loaded.toByteArray());
+        Assert.assertTrue(parts > 1);
+    }
+
+    @Test
+    public void partsLargerThanBlockShouldBeAlignedInPlace() throws IOException {
+        setAlignedParts(2 * BgzfBlocks.MAX_BLOCK_SIZE, BgzfBlocks.MAX_BLOCK_SIZE + 1);
+        byte[] data = BgzfBlocksTest.bgzfData(1500);
+        mockData(data);
+        long outstandingBytes = PartBufferPool.getInstance().getOutstandingBytes();
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                data.length, mockFactory);
+        ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+        readAlignedParts(loader, 0, loaded);
+        Assert.assertArrayEquals(data, loaded.toByteArray());
+        //the parts given as slices of the loaded buffers return the buffers to the pool
+        Assert.assertTrue(PartBufferPool.getInstance().getOutstandingBytes() <= outstandingBytes);
+    }
+
+    @Test
+    public void incompleteLastBlockShouldBeGivenBeforeEnd() throws IOException {
+        setAlignedParts(200, 100);
+        byte[] bgzfData = BgzfBlocksTest.bgzfData(20);
+        byte[] data = Arrays.copyOf(bgzfData, bgzfData.length - 10);
+        mockData(data);
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                data.length, mockFactory);
+        ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+        ByteBuffer part = loader.fetchNextPart();
+        for (; part != ParallelPartsLoader.EOF; part = loader.fetchNextPart()) {
+            Assert.assertEquals(loaded.size(), loader.getFetchedPartStart());
+            byte[] partData = new byte[part.limit()];
+            part.get(partData);
+            loaded.write(partData);
+            loader.releasePart(part);
+        }
+        Assert.assertArrayEquals(data, loaded.toByteArray());
+        Assert.assertSame(ParallelPartsLoader.EOF, loader.fetchNextPart());
+    }
+
+    @Test
+    public void seekToBlockShouldKeepPartsAligned() throws Exception {
+        setAlignedParts(200, 100);
+        byte[] data = BgzfBlocksTest.bgzfData(20);
+        mockData(data);
+        int target = blockStartAfter(data, data.length / 2);
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                data.length, mockFactory);
+        loader.releasePart(loader.fetchNextPart());
+        long nextPartStart = loader.skipTo(target);
+        while (nextPartStart < 0) {
+            //the target part is not queued yet
+            Thread.sleep(10);
+            nextPartStart = loader.skipTo(target);
+        }
+        ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+        readAlignedParts(loader, (int) (target - nextPartStart), loaded);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, (int) nextPartStart, data.length),
+                loaded.toByteArray());
+    }
+
+    private void setAlignedParts(int maxPartSize, int minPartSize) {
+        System.setProperty(Configuration.BGZF_ALIGNED_PARTS_PARAMETER, "true");
+        System.setProperty(Configuration.MAX_CHUNK_SIZE_PARAMETER, Integer.toString(maxPartSize));
+        System.setProperty(Configuration.MIN_CHUNK_SIZE_PARAMETER, Integer.toString(minPartSize));
+        Configuration.init();
+    }
+
+    private void mockData(byte[] data) throws IOException {
+        Mockito.when(mockFactory.loadFromTo(Mockito.any(AmazonS3URI.class), Mockito.anyLong(),
+                Mockito.anyLong())).then(invocation -> {
+                    long from = (Long) invocation.getArguments()[1];
+                    return new ByteArrayInputStream(data, (int) from, data.length - (int) from);
+                });
+    }
+
+    /**
+     * Reads the parts to the end, checking that each one holds whole blocks,
+     * from the offset of the first block in the first part.
+     *
+     * @return the number of parts read.
+     */
+    private static int readAlignedParts(ParallelPartsLoader loader, int firstBlockOffset,
+            ByteArrayOutputStream loaded) throws IOException {
+        long start = -1;
+        int parts = 0;
+        for (ByteBuffer part = loader.fetchNextPart(); part != ParallelPartsLoader.EOF;
+             part = loader.fetchNextPart()) {
+            if (start < 0) {
+                start = loader.getFetchedPartStart();
+            }
+            Assert.assertEquals(start + loaded.size(), loader.getFetchedPartStart());
+            int blocksOffset = parts == 0 ? firstBlockOffset : 0;
+            Assert.assertEquals(part.limit() - blocksOffset,
+                    BgzfBlocks.wholeBlocksLength(part, blocksOffset));
+            byte[] partData = new byte[part.limit()];
+            part.get(partData);
+            loaded.write(partData);
+            loader.releasePart(part);
+            parts++;
+        }
+        return parts;
+    }
+
+    /**
+     * @return the start of the first BGZF block at or after the position.
+     */
+    private static int blockStartAfter(byte[] data, int position) {
+        int blockStart = 0;
+        while (blockStart < position) {
+            //the block size field of the blocks written by htsjdk
+            blockStart += (data[blockStart + 16] & 0xff | (data[blockStart + 17] & 0xff) << 8) + 1;
+        }
+        return blockStart;
+    }
+
     @Test
     public void taskProducerShouldTerminateWhenItIsCanceled() throws InterruptedException {
-        BlockingQueue<Future<Optional<byte[]>>> tasksQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<PartFuture> tasksQueue = new LinkedBlockingQueue<>();
 
         ParallelPartsLoader taskProducer = new ParallelPartsLoader(
                 S3DataLoaderMocker.FAKE_URI,
@@ -128,9 +294,255 @@ public class ParallelPartsLoaderTest {
 
     }
 
-    private void checkRightSizeOfChunk(BlockingQueue<Future<Optional<byte[]>>> tasksQueue,
+    @Test
+    public void canceledLoaderShouldNotStopSharedExecutor() throws Exception {
+        S3DataLoaderMocker.mockPrimitiveLoadFromTo(mockFactory, DATA_SIZE);
+
+        ParallelPartsLoader canceledLoader = new ParallelPartsLoader(
+                S3DataLoaderMocker.FAKE_URI,
+                0,
+                DATA_SIZE,
+                mockFactory
+        );
+        canceledLoader.cancelLoading();
+        Assert.assertFalse(ExecutorsFactory.getTasksExecutor().isShutdown());
+
+        BlockingQueue<PartFuture> tasksQueue = new LinkedBlockingQueue<>();
+        new ParallelPartsLoader(
+                S3DataLoaderMocker.FAKE_URI,
+                0,
+                DATA_SIZE,
+                mockFactory,
+                tasksQueue
+        );
+        int loaded = 0;
+        Optional<ByteBuffer> part = tasksQueue.take().get();
+        while (part.isPresent()) {
+            loaded += part.get().remaining();
+            part = tasksQueue.take().get();
+        }
+        Assert.assertEquals(DATA_SIZE, loaded);
+    }
+
+    @Test
+    public void consumedPartsShouldBeReturnedToBudget() throws InterruptedException {
+        S3DataLoaderMocker.mockAutoSeqLoadFromTo(mockFactory);
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                DATA_SIZE, mockFactory);
+        ByteBuffer part = loader.fetchNextPart();
+        Assert.assertTrue(loader.getReservedBytes() < DATA_SIZE);
+        while (part != ParallelPartsLoader.EOF) {
+            loader.releasePart(part);
+            part = loader.fetchNextPart();
+        }
+        Assert.assertEquals(0, loader.getReservedBytes());
+    }
+
+    @Test
+    public void canceledLoaderShouldReturnPartsToBudget() throws InterruptedException {
+        S3DataLoaderMocker.mockAutoSeqLoadFromTo(mockFactory);
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                DATA_SIZE, mockFactory);
+        loader.releasePart(loader.fetchNextPart());
+        loader.cancelLoading();
+        Thread.sleep(100);
+        Assert.assertEquals(0, loader.getReservedBytes());
+    }
+
+    @Test
+    public void stragglingPartShouldBeHedged() {
+        final int dataSize = 1000;
+        final long slowPartsStart = 800;
+        AtomicBoolean slowPartRequested = new AtomicBoolean();
+        Mockito.when(mockFactory.loadFromTo(Mockito.any(AmazonS3URI.class), Mockito.anyLong(),
+                Mockito.anyLong())).then(invocation -> {
+                    long from = (Long) invocation.getArguments()[1];
+                    boolean slow = from >= slowPartsStart
+                            && slowPartRequested.compareAndSet(false, true);
+                    return new InputStream() {
+                        private long position = from;
+
+                        @Override public int read() throws IOException {
+                            if (slow) {
+                                sleep();
+                            }
+                            return (int) position++;
+                        }
+                    };
+                });
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                dataSize, mockFactory);
+        int position = 0;
+        for (ByteBuffer part = loader.fetchNextPart(); part != ParallelPartsLoader.EOF;
+             part = loader.fetchNextPart()) {
+            for (int i = 0; i < part.limit(); i++) {
+                Assert.assertEquals((byte) position++, part.get(i));
+            }
+            loader.releasePart(part);
+        }
+
+        Assert.assertEquals(dataSize, position);
+        Assert.assertTrue(slowPartRequested.get());
+        Assert.assertTrue(loader.getHedgesFired() >= 1);
+        Assert.assertTrue(loader.getHedgesWon() >= 1);
+    }
+
+    @Test
+    public void shortReadOfCanceledHedgeLoserShouldNotEndTheStream() {
+        final int dataSize = 1000;
+        final long stalledPartStart = 500;
+        AtomicBoolean stalledPartRequested = new AtomicBoolean();
+        Mockito.when(mockFactory.loadFromTo(Mockito.any(AmazonS3URI.class), Mockito.anyLong(),
+                Mockito.anyLong())).then(invocation -> {
+                    long from = (Long) invocation.getArguments()[1];
+                    boolean stalled = from >= stalledPartStart
+                            && stalledPartRequested.compareAndSet(false, true);
+                    return new InputStream() {
+                        private long position = from;
+
+                        @Override public int read() {
+                            //an interrupted connection ends the response early
+                            if (stalled && !stall()) {
+                                return -1;
+                            }
+                            return (int) position++;
+                        }
+                    };
+                });
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                dataSize, mockFactory);
+        int position = 0;
+        for (ByteBuffer part = loader.fetchNextPart(); part != ParallelPartsLoader.EOF;
+             part = loader.fetchNextPart()) {
+            for (int i = 0; i < part.limit(); i++) {
+                Assert.assertEquals((byte) position++, part.get(i));
+            }
+            loader.releasePart(part);
+        }
+
+        Assert.assertEquals(dataSize, position);
+        Assert.assertTrue(stalledPartRequested.get());
+        Assert.assertTrue(loader.getHedgesWon() >= 1);
+    }
+
+    @Test
+    public void interruptedHedgedWaitShouldCancelTheHedge() throws Exception {
+        final int dataSize = 1000;
+        final long stalledPartsStart = 500;
+        AtomicInteger stalledReads = new AtomicInteger();
+        Mockito.when(mockFactory.loadFromTo(Mockito.any(AmazonS3URI.class), Mockito.anyLong(),
+                Mockito.anyLong())).then(invocation -> {
+                    long from = (Long) invocation.getArguments()[1];
+                    return new InputStream() {
+                        private long position = from;
+
+                        @Override public int read() {
+                            if (position >= stalledPartsStart) {
+                                //the part and its hedge stall until they are canceled
+                                stalledReads.incrementAndGet();
+                                boolean stalled = stall();
+                                stalledReads.decrementAndGet();
+                                if (!stalled) {
+                                    return -1;
+                                }
+                            }
+                            return (int) position++;
+                        }
+                    };
+                });
+        long outstandingBytes = PartBufferPool.getInstance().getOutstandingBytes();
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                dataSize, mockFactory);
+        Thread consumer = Thread.currentThread();
+        //the consumer is interrupted once the two stalled parts and the hedge are loading
+        CompletableFuture<Void> interruption = CompletableFuture.runAsync(() -> {
+            while (stalledReads.get() < 3) {
+                Thread.yield();
+            }
+            consumer.interrupt();
+        });
+        try {
+            for (ByteBuffer part = loader.fetchNextPart(); part != ParallelPartsLoader.EOF;
+                 part = loader.fetchNextPart()) {
+                loader.releasePart(part);
+            }
+            Assert.fail();
+        } catch (RuntimeIOException e) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        interruption.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(loader.getHedgesFired() >= 1);
+
+        for (int i = 0; i < 100 && stalledReads.get() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, stalledReads.get());
+        Thread.sleep(100);
+        Assert.assertTrue(PartBufferPool.getInstance().getOutstandingBytes() <= outstandingBytes);
+    }
+
+    @Test
+    public void failedPartShouldFailTheStream() {
+        System.setProperty(Configuration.HEDGE_PERCENTILE_PARAMETER, "0");
+        Configuration.init();
+        Mockito.when(mockFactory.loadFromTo(Mockito.any(AmazonS3URI.class), Mockito.anyLong(),
+                Mockito.anyLong())).then(invocation -> {
+                    long from = (Long) invocation.getArguments()[1];
+                    long to = (Long) invocation.getArguments()[2];
+                    int length = (int) (to - from);
+                    //the parts from the middle of the file are truncated
+                    return new ByteArrayInputStream(new byte[from < DATA_SIZE / 2
+                            ? length : length - 1]);
+                });
+
+        ParallelPartsLoader loader = new ParallelPartsLoader(S3DataLoaderMocker.FAKE_URI, 0,
+                DATA_SIZE, mockFactory);
+        int loaded = 0;
+        try {
+            for (ByteBuffer part = loader.fetchNextPart(); part != ParallelPartsLoader.EOF;
+                 part = loader.fetchNextPart()) {
+                loaded += part.limit();
+                loader.releasePart(part);
+            }
+            Assert.fail("A failed part ended the stream at " + loaded);
+        } catch (RuntimeIOException e) {
+            Assert.assertTrue(loaded < DATA_SIZE);
+        }
+        try {
+            loader.fetchNextPart();
+            Assert.fail();
+        } catch (RuntimeIOException e) {
+            //the stream stays failed
+        }
+    }
+
+    /**
+     * @return false once the thread is interrupted.
+     */
+    private static boolean stall() {
+        try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static void sleep() throws IOException {
+        try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void checkRightSizeOfChunk(BlockingQueue<PartFuture> tasksQueue,
                                        int size) throws InterruptedException, java.util.concurrent.ExecutionException {
-        byte[] byteArray = tasksQueue.take().get().orElseThrow(RuntimeException::new);
-        Assert.assertEquals(size, byteArray.length);
+        ByteBuffer part = tasksQueue.take().get().orElseThrow(RuntimeException::new);
+        Assert.assertEquals(size, part.remaining());
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import com.epam.cmbi.s3.S3InputStreamFactory;
+import com.epam.cmbi.s3.utils.S3DataLoaderMocker;
+import htsjdk.samtools.util.RuntimeIOException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+
+public class PartBufferPoolTest {
+
+    private static final int POOL_SIZE = 1024;
+
+    @Test
+    public void leasedBufferShouldBeSizeClassed() {
+        PartBufferPool pool = new PartBufferPool(POOL_SIZE, false);
+        final int partSize = 100;
+        ByteBuffer buffer = pool.lease(partSize);
+
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(partSize, buffer.limit());
+        Assert.assertEquals(128, buffer.capacity());
+        Assert.assertEquals(128, pool.getOutstandingBytes());
+        Assert.assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void releasedBufferShouldBeReused() {
+        PartBufferPool pool = new PartBufferPool(POOL_SIZE, false);
+        ByteBuffer buffer = pool.lease(100);
+        pool.release(buffer);
+        Assert.assertEquals(0, pool.getOutstandingBytes());
+        Assert.assertEquals(128, pool.getIdleBytes());
+
+        ByteBuffer reused = pool.lease(70);
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(70, reused.limit());
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(1, pool.getMisses());
+        Assert.assertEquals(0, pool.getIdleBytes());
+
+        pool.lease(200);
+        Assert.assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void poolShouldNotExceedByteBudget() {
+        PartBufferPool pool = new PartBufferPool(POOL_SIZE, false);
+        ByteBuffer first = pool.lease(POOL_SIZE);
+        ByteBuffer second = pool.lease(POOL_SIZE);
+        pool.release(first);
+        pool.release(second);
+
+        Assert.assertEquals(POOL_SIZE, pool.getIdleBytes());
+        Assert.assertEquals(0, pool.getOutstandingBytes());
+        Assert.assertSame(first, pool.lease(POOL_SIZE));
+        Assert.assertNotSame(second, pool.lease(POOL_SIZE));
+    }
+
+    @Test
+    public void partReaderShouldReturnBufferOnFailure() throws InterruptedException {
+        S3InputStreamFactory mockFactory = Mockito.mock(S3InputStreamFactory.class);
+        S3DataLoaderMocker.mockPrimitiveLoadFromTo(mockFactory, POOL_SIZE / 2);
+        PartBufferPool pool = new PartBufferPool(POOL_SIZE, false);
+
+        PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI, 0, POOL_SIZE,
+                () -> false, mockFactory, pool);
+        try {
+            reader.call();
+            Assert.fail();
+        } catch (RuntimeIOException e) {
+            Assert.assertEquals(0, pool.getOutstandingBytes());
+        }
+        Assert.assertEquals(POOL_SIZE, pool.getIdleBytes());
+    }
+
+    @Test
+    public void directPoolShouldLeaseDirectBuffers() {
+        PartBufferPool pool = new PartBufferPool(POOL_SIZE, true);
+        ByteBuffer buffer = pool.lease(100);
+        Assert.assertTrue(buffer.isDirect());
+        pool.release(buffer);
+        Assert.assertSame(buffer, pool.lease(100));
+    }
+
+    @Test
+    public void partReaderShouldFillDirectBuffer() throws InterruptedException {
+        S3InputStreamFactory mockFactory = Mockito.mock(S3InputStreamFactory.class);
+        S3DataLoaderMocker.mockAutoSeqLoadFromTo(mockFactory);
+        final int partSize = 150_000;
+        PartBufferPool pool = new PartBufferPool(POOL_SIZE, true);
+
+        PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI, 0, partSize,
+                () -> false, mockFactory, pool);
+        ByteBuffer buffer = reader.call().orElseThrow(RuntimeException::new);
+
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(partSize, buffer.remaining());
+        for (int i = 0; i < partSize; i++) {
+            Assert.assertEquals((byte) i, buffer.get(i));
+        }
+    }
+}
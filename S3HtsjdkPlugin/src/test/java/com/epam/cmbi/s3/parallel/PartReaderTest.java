@@ -24,6 +24,8 @@
 
 package com.epam.cmbi.s3.parallel;
 
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.epam.cmbi.s3.Configuration;
 import com.epam.cmbi.s3.S3InputStreamFactory;
 import com.epam.cmbi.s3.utils.S3DataLoaderMocker;
@@ -36,6 +38,10 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -61,26 +67,50 @@ public class PartReaderTest {
         AtomicBoolean canceledFlag = new AtomicBoolean(false);
         PartReader reader =
                 new PartReader(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE,
-                        canceledFlag, mockFactory);
-        byte[] buffer = reader.call().orElseThrow(RuntimeException::new);
+                        canceledFlag::get, mockFactory);
+        ByteBuffer buffer = reader.call().orElseThrow(RuntimeException::new);
 
         for (int i = 0; i < DATA_SIZE; i++) {
-            Assert.assertEquals(i, buffer[i]);
+            Assert.assertEquals(i, buffer.get(i));
         }
     }
 
+    @Test
+    public void threadNameShouldBeRestoredAfterLoading() throws InterruptedException {
+        String originalName = Thread.currentThread().getName();
+        new PartReader(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE, () -> false,
+                mockFactory).call();
+        Assert.assertEquals(originalName, Thread.currentThread().getName());
+    }
+
     @Test
     public void testPartLoading() throws InterruptedException {
         AtomicBoolean canceledFlag = new AtomicBoolean(false);
         final int partSize = 10;
         PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI, DATA_SIZE - partSize,
                 DATA_SIZE,
-                canceledFlag,
+                canceledFlag::get,
                 mockFactory);
-        byte[] bufferStream = reader.call().orElseThrow(RuntimeException::new);
+        ByteBuffer bufferStream = reader.call().orElseThrow(RuntimeException::new);
 
         for (int i = 0; i < partSize; i++) {
-            Assert.assertEquals(i + DATA_SIZE - partSize, bufferStream[i]);
+            Assert.assertEquals(i + DATA_SIZE - partSize, bufferStream.get(i));
+        }
+    }
+
+    @Test
+    public void testLoadingOfSeveralBlocks() throws InterruptedException {
+        final int partSize = 200_000;
+        final int partStart = 1000;
+        PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI, partStart,
+                partStart + partSize,
+                () -> false,
+                mockFactory);
+        ByteBuffer buffer = reader.call().orElseThrow(RuntimeException::new);
+
+        Assert.assertEquals(partSize, buffer.remaining());
+        for (int i = 0; i < partSize; i++) {
+            Assert.assertEquals((byte) (partStart + i), buffer.get(i));
         }
     }
 
@@ -89,10 +119,10 @@ public class PartReaderTest {
         AtomicBoolean canceledFlag = new AtomicBoolean(false);
         PartReader reader =
                 new PartReader(S3DataLoaderMocker.FAKE_URI, 0,
-                        DATA_SIZE, canceledFlag, mockFactory);
+                        DATA_SIZE, canceledFlag::get, mockFactory);
 
         ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<Optional<byte[]>> future = executor.submit(reader);
+        Future<Optional<ByteBuffer>> future = executor.submit(reader);
         canceledFlag.set(true);
 
         try {
@@ -112,13 +142,72 @@ public class PartReaderTest {
         PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI,
                 0,
                 DATA_SIZE,
-                new AtomicBoolean(false),
+                () -> false,
                 mockFactory);
         Assert.assertEquals(Optional.empty(), reader.call());
         Assert.assertEquals(Configuration.getCustomRetryCount(),
                 S3DataLoaderMocker.getExceptionsCount());
     }
 
+    @Test
+    public void partReaderShouldRetryThrottledRequest() throws InterruptedException {
+        AmazonS3Exception slowDown = new AmazonS3Exception("Please reduce your request rate.");
+        slowDown.setStatusCode(503);
+        slowDown.setErrorCode("SlowDown");
+        S3InputStreamFactory throttledFactory = Mockito.mock(S3InputStreamFactory.class);
+        Mockito.when(throttledFactory.loadFromTo(Mockito.any(AmazonS3URI.class),
+                Mockito.anyLong(), Mockito.anyLong()))
+                .thenThrow(slowDown)
+                .thenReturn(new ByteArrayInputStream(new byte[DATA_SIZE]));
+
+        PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE,
+                () -> false, throttledFactory);
+        ByteBuffer buffer = reader.call().orElseThrow(RuntimeException::new);
+        Assert.assertEquals(DATA_SIZE, buffer.remaining());
+        Mockito.verify(throttledFactory, Mockito.times(2)).loadFromTo(
+                Mockito.any(AmazonS3URI.class), Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @Test
+    public void brokenDownloadShouldBeResumedFromLastReceivedByte() throws InterruptedException {
+        final int brokenAt = 50;
+        S3InputStreamFactory breakingFactory = Mockito.mock(S3InputStreamFactory.class);
+        Mockito.when(breakingFactory.loadFromTo(Mockito.any(AmazonS3URI.class),
+                Mockito.anyLong(), Mockito.anyLong()))
+                .thenReturn(new InputStream() {
+                    private int position = 0;
+
+                    @Override public int read() throws IOException {
+                        if (position == brokenAt) {
+                            throw new IOException("Connection reset");
+                        }
+                        return position++;
+                    }
+                })
+                .thenReturn(S3DataLoaderMocker.sequence(brokenAt, DATA_SIZE));
+
+        PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE,
+                () -> false, breakingFactory);
+        ByteBuffer buffer = reader.call().orElseThrow(RuntimeException::new);
+
+        Assert.assertEquals(DATA_SIZE, buffer.remaining());
+        for (int i = 0; i < DATA_SIZE; i++) {
+            Assert.assertEquals(i, buffer.get(i));
+        }
+        Mockito.verify(breakingFactory).loadFromTo(S3DataLoaderMocker.FAKE_URI, brokenAt,
+                DATA_SIZE);
+    }
+
+    @Test
+    public void retryDelayShouldBeWithinBackoff() {
+        for (int attempt = 1; attempt < 40; attempt++) {
+            long backoff = Math.min(PartReader.MAX_RETRY_DELAY,
+                    PartReader.RETRY_BASE_DELAY << Math.min(attempt - 1, 16));
+            long delay = PartReader.getRetryDelay(attempt);
+            Assert.assertTrue(delay >= 0 && delay <= backoff);
+        }
+    }
+
     @Test(expected = RuntimeIOException.class)
     public void partReaderThrowExceptionWhenDataStreamEndsAhead() throws InterruptedException {
         S3DataLoaderMocker.mockPrimitiveLoadFromTo(mockFactory, DATA_SIZE/2);
@@ -126,7 +215,7 @@ public class PartReaderTest {
         PartReader reader = new PartReader(S3DataLoaderMocker.FAKE_URI,
                 0,
                 DATA_SIZE,
-                new AtomicBoolean(false),
+                () -> false,
                 mockFactory);
         reader.call();
     }
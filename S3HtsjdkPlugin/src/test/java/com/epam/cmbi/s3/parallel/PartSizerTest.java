@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class PartSizerTest {
+
+    private static final int MIN_PART_SIZE = 1024;
+    private static final int MAX_PART_SIZE = 64 * 1024;
+    private static final int PARTS_PER_STEP = 2;
+
+    @Test
+    public void partSizeShouldBeDoubledWithoutEstimates() {
+        PartSizer sizer = new PartSizer(MIN_PART_SIZE, MAX_PART_SIZE, PARTS_PER_STEP, true,
+                new TransferStatistics());
+        int[] expectedSizes = {1024, 1024, 2048, 2048, 4096, 4096, 8192};
+        for (int expectedSize : expectedSizes) {
+            Assert.assertEquals(expectedSize, sizer.nextPartSize());
+        }
+    }
+
+    @Test
+    public void partSizeShouldContinueAfterRampUp() {
+        PartSizer sizer = new PartSizer(MIN_PART_SIZE, MAX_PART_SIZE, PARTS_PER_STEP, false,
+                new TransferStatistics());
+        sizer.rampUpTo(3000);
+        int[] expectedSizes = {4096, 4096, 8192};
+        for (int expectedSize : expectedSizes) {
+            Assert.assertEquals(expectedSize, sizer.nextPartSize());
+        }
+    }
+
+    @Test
+    public void partSizeShouldFollowBandwidthDelayProductAfterFirstParts() {
+        TransferStatistics statistics = new TransferStatistics();
+        final long bytesPerSecond = 1024 * 1024;
+        final long latencyNanos = TimeUnit.MILLISECONDS.toNanos(5);
+        final long transferNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        statistics.record(bytesPerSecond / 100, latencyNanos, latencyNanos + transferNanos);
+
+        PartSizer sizer = new PartSizer(MIN_PART_SIZE, MAX_PART_SIZE, PARTS_PER_STEP, true,
+                statistics);
+        Assert.assertEquals(MIN_PART_SIZE, sizer.nextPartSize());
+        Assert.assertEquals(MIN_PART_SIZE, sizer.nextPartSize());
+        //4 * 5ms * 1MB/s
+        Assert.assertEquals(20971, sizer.nextPartSize(), 1);
+    }
+
+    @Test
+    public void adaptivePartSizeShouldBeWithinLimits() {
+        TransferStatistics statistics = new TransferStatistics();
+        final long latencyNanos = TimeUnit.SECONDS.toNanos(1);
+        statistics.record(MAX_PART_SIZE, latencyNanos, latencyNanos + latencyNanos);
+
+        PartSizer sizer = new PartSizer(MIN_PART_SIZE, MAX_PART_SIZE, 1, true, statistics);
+        Assert.assertEquals(MIN_PART_SIZE, sizer.nextPartSize());
+        Assert.assertEquals(MAX_PART_SIZE, sizer.nextPartSize());
+    }
+
+    @Test
+    public void disabledAdaptiveSizingShouldIgnoreEstimates() {
+        TransferStatistics statistics = new TransferStatistics();
+        final long latencyNanos = TimeUnit.SECONDS.toNanos(1);
+        statistics.record(MAX_PART_SIZE, latencyNanos, latencyNanos + latencyNanos);
+
+        PartSizer sizer = new PartSizer(MIN_PART_SIZE, MAX_PART_SIZE, 1, false, statistics);
+        Assert.assertEquals(MIN_PART_SIZE, sizer.nextPartSize());
+        Assert.assertEquals(2 * MIN_PART_SIZE, sizer.nextPartSize());
+    }
+
+    @Test
+    public void shortTransfersShouldNotCountForThroughput() {
+        TransferStatistics statistics = new TransferStatistics();
+        statistics.record(MIN_PART_SIZE, TimeUnit.MILLISECONDS.toNanos(5),
+                TimeUnit.MILLISECONDS.toNanos(5));
+        Assert.assertFalse(statistics.hasEstimates());
+        Assert.assertEquals(0.005, statistics.getFirstByteLatencySeconds(), 1e-9);
+    }
+}
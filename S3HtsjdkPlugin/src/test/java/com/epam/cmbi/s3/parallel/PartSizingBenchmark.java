@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.epam.cmbi.s3.Configuration;
+import com.epam.cmbi.s3.S3InputStreamFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A benchmark of the part sizing against a simulated high-latency endpoint.
+ * Each range request waits for the latency before the first byte and then
+ * delivers the data at the bandwidth of a single connection.
+ * The file is read sequentially with the adaptive part sizing and with the fixed one.
+ *
+ * Arguments: latency in milliseconds, connection bandwidth in MB/s, file size in MB
+ * and number of connections; defaults are 100, 8, 128 and 16.
+ */
+public final class PartSizingBenchmark {
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final AmazonS3URI URI = new AmazonS3URI("s3://benchmark/simulated.bam");
+
+    private PartSizingBenchmark() {
+        //no operations
+    }
+
+    public static void main(String[] args) throws IOException {
+        long latencyMillis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        long bandwidth = (args.length > 1 ? Long.parseLong(args[1]) : 8) * MEGABYTE;
+        long fileSize = (args.length > 2 ? Long.parseLong(args[2]) : 128) * MEGABYTE;
+        String connections = args.length > 3 ? args[3] : "16";
+
+        S3InputStreamFactory endpoint = new SimulatedEndpoint(latencyMillis, bandwidth);
+        System.setProperty(Configuration.CONNECTIONS_NUMBER_PARAMETER, connections);
+        for (boolean adaptive : new boolean[] {true, false}) {
+            System.setProperty(Configuration.ADAPTIVE_PART_SIZE_PARAMETER,
+                    Boolean.toString(adaptive));
+            Configuration.init();
+
+            long start = System.nanoTime();
+            S3ParallelStream stream = new S3ParallelStream(URI, 0, fileSize, endpoint);
+            byte[] buffer = new byte[MEGABYTE];
+            long firstByteNanos = 0;
+            long totalRead = 0;
+            for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                if (totalRead == 0) {
+                    firstByteNanos = System.nanoTime() - start;
+                }
+                totalRead += read;
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            int requests = stream.getRequestCount();
+            stream.close();
+
+            System.out.printf("%s part sizes: %d MB in %.2f s (%.1f MB/s), first MB in %d ms, "
+                            + "%d requests%n",
+                    adaptive ? "Adaptive" : "Fixed", totalRead / MEGABYTE,
+                    elapsedNanos / 1e9, totalRead * 1e9 / elapsedNanos / MEGABYTE,
+                    TimeUnit.NANOSECONDS.toMillis(firstByteNanos), requests);
+        }
+        Configuration.resetToDefault();
+    }
+
+    /**
+     * Range responses with the latency before the first byte and a limited bandwidth.
+     */
+    static final class SimulatedEndpoint extends S3InputStreamFactory {
+        private final long latencyMillis;
+        private final long bandwidth;
+
+        SimulatedEndpoint(long latencyMillis, long bandwidth) {
+            super(null);
+            this.latencyMillis = latencyMillis;
+            this.bandwidth = bandwidth;
+        }
+
+        @Override public InputStream loadFromTo(AmazonS3URI obj, long offset, long end) {
+            return new InputStream() {
+                private final long requestTime = System.nanoTime();
+                private long position = offset;
+
+                @Override public int read() throws IOException {
+                    byte[] data = new byte[1];
+                    return read(data, 0, 1) == -1 ? -1 : data[0] & 0xff;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    if (position >= end) {
+                        return -1;
+                    }
+                    int length = (int) Math.min(len, end - position);
+                    for (int i = 0; i < length; i++) {
+                        b[off + i] = (byte) (position + i);
+                    }
+                    position += length;
+                    long deliveryNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis)
+                            + (position - offset) * TimeUnit.SECONDS.toNanos(1) / bandwidth;
+                    waitUntil(requestTime + deliveryNanos);
+                    return length;
+                }
+            };
+        }
+
+        private static void waitUntil(long nanoTime) throws InterruptedIOException {
+            long delay = nanoTime - System.nanoTime();
+            if (delay > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Simulated transfer was interrupted");
+                }
+            }
+        }
+    }
+}
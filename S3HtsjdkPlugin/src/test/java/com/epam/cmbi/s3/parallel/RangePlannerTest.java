@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RangePlannerTest {
+
+    private static final long GAP_THRESHOLD = 100;
+
+    @Test
+    public void rangesWithSmallGapsShouldBeCoalesced() {
+        RangePlanner.Plan plan = new RangePlanner(GAP_THRESHOLD).plan(Arrays.asList(
+                new ByteRange(1000, 1100),
+                new ByteRange(0, 100),
+                new ByteRange(150, 200),
+                new ByteRange(300, 400)));
+
+        Assert.assertEquals(Arrays.asList(new ByteRange(0, 200), new ByteRange(300, 400),
+                new ByteRange(1000, 1100)), plan.getFetchRanges());
+        Assert.assertEquals(4, plan.getRequestedRangesCount());
+        Assert.assertEquals(350, plan.getRequestedBytes());
+        Assert.assertEquals(400, plan.getFetchedBytes());
+        Assert.assertEquals(50.0 / 400, plan.getWastedBytesRatio(), 1e-9);
+    }
+
+    @Test
+    public void overlappingRangesShouldBeCountedOnce() {
+        RangePlanner.Plan plan = new RangePlanner(0).plan(Arrays.asList(
+                new ByteRange(0, 100), new ByteRange(50, 150), new ByteRange(150, 160)));
+
+        Assert.assertEquals(Collections.singletonList(new ByteRange(0, 160)),
+                plan.getFetchRanges());
+        Assert.assertEquals(160, plan.getRequestedBytes());
+        Assert.assertEquals(0, plan.getWastedBytesRatio(), 1e-9);
+    }
+
+    @Test
+    public void emptyRequestShouldHaveEmptyPlan() {
+        RangePlanner.Plan plan = new RangePlanner(GAP_THRESHOLD).plan(Collections.emptyList());
+
+        Assert.assertTrue(plan.getFetchRanges().isEmpty());
+        Assert.assertEquals(0, plan.getWastedBytesRatio(), 1e-9);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryBudgetTest {
+
+    private static final int MAX_TOKENS = 3;
+
+    @Test
+    public void retriesShouldBeDeniedWhenBudgetIsSpent() {
+        RetryBudget budget = new RetryBudget(MAX_TOKENS);
+        for (int i = 0; i < MAX_TOKENS; i++) {
+            Assert.assertTrue(budget.tryRetry());
+        }
+        Assert.assertFalse(budget.tryRetry());
+        Assert.assertEquals(MAX_TOKENS, budget.getRetries());
+        Assert.assertEquals(1, budget.getDeniedRetries());
+    }
+
+    @Test
+    public void successfulDownloadsShouldRefillBudget() {
+        RetryBudget budget = new RetryBudget(MAX_TOKENS);
+        for (int i = 0; i < MAX_TOKENS; i++) {
+            budget.tryRetry();
+        }
+        for (int i = 0; i < 10; i++) {
+            budget.onSuccess();
+        }
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void budgetShouldNotGrowOverMaxTokens() {
+        RetryBudget budget = new RetryBudget(1);
+        for (int i = 0; i < 100; i++) {
+            budget.onSuccess();
+        }
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void zeroBudgetShouldDenyRetries() {
+        Assert.assertFalse(new RetryBudget(0).tryRetry());
+    }
+}
@@ -24,9 +24,11 @@
 
 package com.epam.cmbi.s3.parallel;
 
+import com.amazonaws.services.s3.AmazonS3URI;
 import com.epam.cmbi.s3.Configuration;
 import com.epam.cmbi.s3.S3InputStreamFactory;
 import com.epam.cmbi.s3.utils.S3DataLoaderMocker;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Before;
@@ -37,6 +39,9 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 @RunWith(PowerMockRunner.class)
@@ -54,6 +59,12 @@ public class S3ParallelStreamTest {
         S3DataLoaderMocker.mockAutoSeqLoadFromTo(mockFactory);
     }
 
+    @After
+    public void resetRetainedPartsSize() {
+        System.setProperty(Configuration.RETAINED_PARTS_SIZE_PARAMETER,
+                Long.toString(Configuration.DEFAULT_RETAINED_PARTS_SIZE));
+    }
+
     @AfterClass
     public static void resetConfiguration() {
         Configuration.resetToDefault();
@@ -78,4 +89,190 @@ public class S3ParallelStreamTest {
 
         Assert.assertEquals(-1, parallelStream.read());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBulkReadingAcrossParts() throws IOException {
+        setUpPartsConfiguration();
+
+        S3ParallelStream parallelStream =
+                new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE, mockFactory);
+
+        final int firstReadSize = 3;
+        final int offset = 2;
+        byte[] buffer = new byte[DATA_SIZE + offset + 1];
+        Assert.assertEquals(firstReadSize, parallelStream.read(buffer, offset, firstReadSize));
+        Assert.assertEquals(DATA_SIZE - firstReadSize,
+                parallelStream.read(buffer, offset + firstReadSize, DATA_SIZE - firstReadSize + 1));
+        for (int i = 0; i < DATA_SIZE; i++) {
+            Assert.assertEquals(i, buffer[offset + i]);
+        }
+
+        Assert.assertEquals(-1, parallelStream.read(buffer, 0, buffer.length));
+        Assert.assertEquals(-1, parallelStream.read());
+    }
+
+    @Test
+    public void testSkipAcrossParts() throws IOException {
+        setUpPartsConfiguration();
+
+        S3ParallelStream parallelStream =
+                new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE, mockFactory);
+
+        final int skipSize = PART_SIZE + 2;
+        Assert.assertEquals(skipSize, parallelStream.skip(skipSize));
+        Assert.assertEquals(skipSize, parallelStream.read());
+        Assert.assertEquals(DATA_SIZE - skipSize - 1, parallelStream.skip(DATA_SIZE));
+        Assert.assertEquals(-1, parallelStream.read());
+    }
+
+    @Test
+    public void backwardSeekShouldBeServedFromRetainedParts() throws IOException {
+        setUpPartsConfiguration();
+        S3ParallelStream parallelStream =
+                new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE, mockFactory);
+
+        final int readSize = PART_SIZE + 3;
+        Assert.assertEquals(readSize, parallelStream.skip(readSize));
+        final int seekPosition = 2;
+        Assert.assertTrue(parallelStream.seek(seekPosition));
+        Assert.assertEquals(seekPosition, parallelStream.position());
+        for (int i = seekPosition; i < DATA_SIZE; i++) {
+            Assert.assertEquals(i, parallelStream.read());
+        }
+        Assert.assertEquals(-1, parallelStream.read());
+
+        Assert.assertTrue(parallelStream.seek(PART_SIZE));
+        Assert.assertEquals(PART_SIZE, parallelStream.read());
+        verifyNumberOfRequests(DATA_SIZE / PART_SIZE + 1);
+    }
+
+    @Test
+    public void forwardSeekShouldDropQueuedPartsBeforeTarget()
+            throws IOException, InterruptedException {
+        setUpPartsConfiguration();
+        final int partsCount = DATA_SIZE / PART_SIZE + 1;
+        CountDownLatch loadedParts = new CountDownLatch(partsCount);
+        S3DataLoaderMocker.mockAutoSeqLoadFromTo(mockFactory, loadedParts);
+        S3ParallelStream parallelStream =
+                new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE, mockFactory);
+
+        Assert.assertEquals(0, parallelStream.read());
+        //let the loader queue all the parts
+        Assert.assertTrue(loadedParts.await(10, TimeUnit.SECONDS));
+        final int seekPosition = 2 * PART_SIZE + 1;
+        Assert.assertTrue(parallelStream.seek(seekPosition));
+        Assert.assertEquals(seekPosition, parallelStream.position());
+        Assert.assertEquals(seekPosition, parallelStream.read());
+
+        //the retained first part is kept, the reads from it stop at the dropped part
+        Assert.assertTrue(parallelStream.seek(1));
+        for (int i = 1; i < PART_SIZE; i++) {
+            Assert.assertEquals(i, parallelStream.read());
+        }
+        Assert.assertEquals(-1, parallelStream.read());
+        Assert.assertEquals(PART_SIZE, parallelStream.position());
+        Assert.assertEquals(2 * PART_SIZE, parallelStream.getLoadedPositionAfter(PART_SIZE));
+
+        Assert.assertTrue(parallelStream.seek(2 * PART_SIZE));
+        Assert.assertEquals(2 * PART_SIZE, parallelStream.read());
+        Assert.assertTrue(parallelStream.seek(seekPosition));
+        Assert.assertEquals(seekPosition, parallelStream.read());
+        verifyNumberOfRequests(partsCount);
+    }
+
+    @Test
+    public void seekBeforeRetainedPartsShouldFail() throws IOException {
+        System.setProperty(Configuration.RETAINED_PARTS_SIZE_PARAMETER, "0");
+        setUpPartsConfiguration();
+        S3ParallelStream parallelStream =
+                new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0, DATA_SIZE, mockFactory);
+
+        Assert.assertEquals(PART_SIZE + 1, parallelStream.skip(PART_SIZE + 1));
+        Assert.assertFalse(parallelStream.seek(1));
+        Assert.assertTrue(parallelStream.seek(PART_SIZE));
+        Assert.assertEquals(PART_SIZE, parallelStream.read());
+    }
+
+    @Test
+    public void cachedBlocksShouldBeSharedBetweenStreams() throws IOException {
+        setUpPartsConfiguration();
+        final int blockSize = 4;
+        BlockCache cache = new BlockCache(DATA_SIZE, blockSize);
+        S3ParallelStream firstStream = new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0,
+                DATA_SIZE, mockFactory, "etag", DATA_SIZE, cache);
+        Assert.assertEquals(DATA_SIZE, firstStream.skip(DATA_SIZE));
+        firstStream.close();
+        verifyNumberOfRequests(DATA_SIZE / PART_SIZE + 1);
+
+        S3ParallelStream secondStream = new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0,
+                DATA_SIZE, mockFactory, "etag", DATA_SIZE, cache);
+        for (int i = 0; i < DATA_SIZE; i++) {
+            Assert.assertEquals(i, secondStream.read());
+        }
+        Assert.assertEquals(-1, secondStream.read());
+        verifyNumberOfRequests(DATA_SIZE / PART_SIZE + 1);
+        Assert.assertEquals(DATA_SIZE / PART_SIZE + 1, cache.getHits());
+    }
+
+    @Test
+    public void shortLastBlockShouldBeCached() throws IOException {
+        setUpPartsConfiguration();
+        final int blockSize = 4;
+        final int objectLength = DATA_SIZE + 2;
+        BlockCache cache = new BlockCache(2 * objectLength, blockSize);
+        S3ParallelStream firstStream = new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0,
+                objectLength, mockFactory, "etag", objectLength, cache);
+        Assert.assertEquals(objectLength, firstStream.skip(objectLength));
+        firstStream.close();
+        verifyNumberOfRequests(objectLength / PART_SIZE + 1);
+
+        S3ParallelStream secondStream = new S3ParallelStream(S3DataLoaderMocker.FAKE_URI, 0,
+                objectLength, mockFactory, "etag", objectLength, cache);
+        for (int i = 0; i < objectLength; i++) {
+            Assert.assertEquals(i, secondStream.read());
+        }
+        Assert.assertEquals(-1, secondStream.read());
+        verifyNumberOfRequests(objectLength / PART_SIZE + 1);
+        Assert.assertEquals(objectLength, cache.getSize());
+    }
+
+    @Test
+    public void rangesStreamShouldStopAtGapsBetweenRanges() throws IOException {
+        setUpPartsConfiguration();
+        final int firstRangeStart = 2;
+        final int secondRangeStart = 9;
+        final int rangeLength = 3;
+        S3ParallelStream parallelStream = new S3ParallelStream(S3DataLoaderMocker.FAKE_URI,
+                Arrays.asList(new ByteRange(firstRangeStart, firstRangeStart + rangeLength),
+                        new ByteRange(secondRangeStart, secondRangeStart + rangeLength)),
+                mockFactory, null, DATA_SIZE);
+
+        Assert.assertEquals(firstRangeStart, parallelStream.position());
+        for (int i = 0; i < rangeLength; i++) {
+            Assert.assertEquals(firstRangeStart + i, parallelStream.read());
+        }
+        Assert.assertEquals(-1, parallelStream.read());
+        Assert.assertEquals(firstRangeStart + rangeLength, parallelStream.position());
+
+        Assert.assertFalse(parallelStream.seek(secondRangeStart - 1));
+        Assert.assertTrue(parallelStream.seek(secondRangeStart));
+        byte[] buffer = new byte[2 * rangeLength];
+        Assert.assertEquals(rangeLength, parallelStream.read(buffer, 0, buffer.length));
+        Assert.assertEquals(secondRangeStart, buffer[0]);
+        Assert.assertEquals(-1, parallelStream.read());
+        verifyNumberOfRequests(2);
+    }
+
+    private void setUpPartsConfiguration() {
+        System.setProperty(Configuration.CONNECTIONS_NUMBER_PARAMETER,
+                Integer.toString(NUM_OF_THREADS));
+        System.setProperty(Configuration.MAX_CHUNK_SIZE_PARAMETER, Integer.toString(PART_SIZE));
+        System.setProperty(Configuration.MIN_CHUNK_SIZE_PARAMETER, Integer.toString(PART_SIZE));
+        Configuration.init();
+    }
+
+    private void verifyNumberOfRequests(int numberOfRequests) {
+        Mockito.verify(mockFactory, Mockito.times(numberOfRequests)).loadFromTo(
+                Mockito.any(AmazonS3URI.class), Mockito.anyLong(), Mockito.anyLong());
+    }
+}
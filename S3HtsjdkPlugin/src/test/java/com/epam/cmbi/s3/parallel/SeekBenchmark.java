@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 EPAM Systems
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.epam.cmbi.s3.parallel;
+
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.epam.cmbi.s3.Configuration;
+import com.epam.cmbi.s3.S3InputStreamFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A benchmark of the seeks against the simulated high-latency endpoint of
+ * the PartSizingBenchmark. The file is read at random positions, a few kilobytes
+ * after each seek, as an index-driven query does. A seek outside the loaded window
+ * starts a new stream at the target, as the S3SeekableStream does.
+ * The seek latency and the number of download threads created by the seeks are printed.
+ *
+ * Arguments: number of seeks, kilobytes read after a seek, latency in milliseconds,
+ * connection bandwidth in MB/s, file size in MB and number of connections;
+ * defaults are 200, 64, 100, 8, 1024 and 16.
+ */
+public final class SeekBenchmark {
+
+    private static final int KILOBYTE = 1024;
+    private static final int MEGABYTE = 1024 * KILOBYTE;
+    private static final double NANOS_IN_MILLISEC = 1_000_000;
+    private static final AmazonS3URI URI = new AmazonS3URI("s3://benchmark/simulated.bam");
+
+    private SeekBenchmark() {
+        //no operations
+    }
+
+    public static void main(String[] args) throws IOException {
+        int seeks = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int readSize = (args.length > 1 ? Integer.parseInt(args[1]) : 64) * KILOBYTE;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        long bandwidth = (args.length > 3 ? Long.parseLong(args[3]) : 8) * MEGABYTE;
+        long fileSize = (args.length > 4 ? Long.parseLong(args[4]) : 1024) * MEGABYTE;
+        String connections = args.length > 5 ? args[5] : "16";
+
+        S3InputStreamFactory endpoint =
+                new PartSizingBenchmark.SimulatedEndpoint(latencyMillis, bandwidth);
+        System.setProperty(Configuration.CONNECTIONS_NUMBER_PARAMETER, connections);
+        Configuration.init();
+
+        Random random = new Random(seeks);
+        long[] times = new long[seeks];
+        int restarts = 0;
+        long threadsBefore = ExecutorsFactory.getCreatedTasksThreads();
+        S3ParallelStream stream = new S3ParallelStream(URI, 0, fileSize, endpoint);
+        byte[] buffer = new byte[readSize];
+        for (int i = 0; i < seeks; i++) {
+            long target = (long) (random.nextDouble() * (fileSize - readSize));
+            long start = System.nanoTime();
+            if (!stream.seek(target)) {
+                stream.close();
+                stream = new S3ParallelStream(URI, target, fileSize, endpoint);
+                restarts++;
+            }
+            for (int read = 0; read < readSize; ) {
+                read += stream.read(buffer, read, readSize - read);
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        stream.close();
+        long threadsCreated = ExecutorsFactory.getCreatedTasksThreads() - threadsBefore;
+
+        Arrays.sort(times);
+        System.out.printf("%d seeks, %d restarted the stream: average %.1f ms, "
+                        + "median %.1f ms, 99th percentile %.1f ms%n",
+                seeks, restarts, Arrays.stream(times).average().orElse(0) / NANOS_IN_MILLISEC,
+                times[seeks / 2] / NANOS_IN_MILLISEC,
+                times[Math.min(seeks - 1, seeks * 99 / 100)] / NANOS_IN_MILLISEC);
+        System.out.printf("Download threads created: %d, %.2f per seek%n",
+                threadsCreated, (double) threadsCreated / seeks);
+        System.out.println(ExecutorsFactory.getSummary());
+        Configuration.resetToDefault();
+    }
+}
@@ -32,6 +32,7 @@ import org.powermock.api.mockito.PowerMockito;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
 
 public class S3DataLoaderMocker {
 
@@ -58,23 +59,41 @@ public class S3DataLoaderMocker {
     }
 
     public static void mockAutoSeqLoadFromTo(S3InputStreamFactory factory) {
+        mockAutoSeqLoadFromTo(factory, new CountDownLatch(0));
+    }
+
+    /**
+     * Mocks the loads of the sequence data, where each byte is its position in the file.
+     *
+     * @param loads a latch counted down on each load.
+     */
+    public static void mockAutoSeqLoadFromTo(S3InputStreamFactory factory, CountDownLatch loads) {
         PowerMockito.mockStatic(S3InputStreamFactory.class);
         PowerMockito
                 .when(factory.loadFromTo(
                         Mockito.any(AmazonS3URI.class),
                         Mockito.anyLong(),
                         Mockito.anyLong()))
-                .then((invocation) -> new InputStream() {
+                .then((invocation) -> {
+                    loads.countDown();
+                    return sequence((Long) invocation.getArguments()[1],
+                            (Long) invocation.getArguments()[2]);
+                });
+    }
 
-                            long from = (Long) invocation.getArguments()[1];
-                            final long to = (Long) invocation.getArguments()[2];
+    /**
+     * @return a stream of the sequence data from the position to the end position.
+     */
+    public static InputStream sequence(long from, long to) {
+        return new InputStream() {
 
-                            @Override
-                            public int read() throws IOException {
-                                return (from < to) ? (int) from++ : END_BYTE;
-                            }
-                        }
-                );
+            long position = from;
+
+            @Override
+            public int read() throws IOException {
+                return (position < to) ? (int) (position++ & 0xff) : END_BYTE;
+            }
+        };
     }
 
     public static void mockIOException(S3InputStreamFactory factory) {
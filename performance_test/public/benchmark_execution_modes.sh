@@ -0,0 +1,44 @@
+#!/bin/sh
+test_name="Compare platform and virtual download threads of S3 HTSJDK plugin"
+
+echo $test_name
+prefix=http://s3.amazonaws.com/
+
+if [ $# -gt 0 ];then
+	url=$1
+else
+	url=http://s3.amazonaws.com/3kricegenome/9311/IRIS_313-15896.realigned.bam
+fi
+
+if [ $# -gt 1 ];then
+	connections=$2
+else
+	connections=500
+fi
+
+# Virtual threads require Java 21 or newer, on older runtimes the plugin falls back to platform threads
+java -version
+
+wget https://github.com/broadinstitute/picard/releases/download/2.8.1/picard.jar
+
+picard_path=$(pwd)/picard.jar
+plugin_path=$(pwd)/../../S3HtsjdkPlugin/build/libs/s3HtsjdkReaderFactory.jar
+
+run_plugin() {
+	echo
+	echo "######################### S3 plugin download, execution mode: $1, connections: $connections"
+	echo
+	START=$(date +%s)
+	/usr/bin/time -f "Max resident memory: %M KB" java -jar \
+		-Dsamjdk.s3plugin.number_of_connections=$connections \
+		-Dsamjdk.s3plugin.execution_mode=$1 \
+		-Dsamjdk.custom_reader=$prefix,com.epam.cmbi.s3.S3ReaderFactory,$plugin_path \
+		$picard_path ViewSam VERBOSITY=INFO VALIDATION_STRINGENCY=SILENT INPUT=$url > /dev/null
+	END=$(date +%s)
+	echo Elapsed time with $1 threads: $(( $END - $START )) sec
+}
+
+run_plugin platform
+run_plugin virtual
+
+rm picard.jar